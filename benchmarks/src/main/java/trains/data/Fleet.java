@@ -0,0 +1,137 @@
+package trains.data;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Made up train data for benchmarks: any number of trains, each with the same coaches of the same
+ * number of seats, and some fraction of the seats already booked. The same sizes and seed always
+ * make the same fleet.
+ */
+final class Fleet {
+
+  private final int trains;
+  private final int coaches;
+  private final int seatsPerCoach;
+  private final double booked;
+  private final long seed;
+
+  Fleet(int trains, int coaches, int seatsPerCoach, double booked, long seed) {
+    this.trains = trains;
+    this.coaches = coaches;
+    this.seatsPerCoach = seatsPerCoach;
+    this.booked = booked;
+    this.seed = seed;
+  }
+
+  static String trainId(int train) {
+    return "train_" + train;
+  }
+
+  /** A, B, ... Z, AA, AB, ... */
+  static String coachId(int coach) {
+    String id = "";
+    for (int c = coach + 1; c > 0; c = (c - 1) / 26) {
+      id = (char) ('A' + (c - 1) % 26) + id;
+    }
+    return id;
+  }
+
+  static String seatId(int coach, int seat) {
+    return (seat + 1) + coachId(coach);
+  }
+
+  int trains() {
+    return trains;
+  }
+
+  /** Every seat id, coach by coach */
+  List<String> seatIds() {
+    List<String> seatIds = new ArrayList<>(coaches * seatsPerCoach);
+    for (int c = 0; c < coaches; c++) {
+      for (int s = 0; s < seatsPerCoach; s++) {
+        seatIds.add(seatId(c, s));
+      }
+    }
+    return seatIds;
+  }
+
+  /** The fleet as {"train_id": {train data}, ...}, the way the service's train data file lays it out */
+  JsonObject json(TrainDataFormat format) {
+    Random random = new Random(seed);
+    JsonObject fleet = new JsonObject();
+    for (int t = 0; t < trains; t++) {
+      fleet.add(trainId(t), format == TrainDataFormat.COACHES ? coachesOf(t, random) : seatsOf(t, random));
+    }
+    return fleet;
+  }
+
+  private JsonObject coachesOf(int train, Random random) {
+    JsonArray coachesData = new JsonArray();
+    for (int c = 0; c < coaches; c++) {
+      JsonArray seatsData = new JsonArray();
+      for (int s = 0; s < seatsPerCoach; s++) {
+        JsonObject seat = new JsonObject();
+        seat.addProperty("seat_number", Integer.toString(s + 1));
+        seat.addProperty("booking_reference", bookingReference(train, random));
+        seatsData.add(seat);
+      }
+      JsonObject coach = new JsonObject();
+      coach.addProperty("coach", coachId(c));
+      coach.add("seats", seatsData);
+      coachesData.add(coach);
+    }
+    JsonObject trainData = new JsonObject();
+    trainData.add("coaches", coachesData);
+    return trainData;
+  }
+
+  private JsonObject seatsOf(int train, Random random) {
+    JsonObject seats = new JsonObject();
+    for (int c = 0; c < coaches; c++) {
+      for (int s = 0; s < seatsPerCoach; s++) {
+        JsonObject seat = new JsonObject();
+        seat.addProperty("coach", coachId(c));
+        seat.addProperty("seat_number", Integer.toString(s + 1));
+        seat.addProperty("booking_reference", bookingReference(train, random));
+        seats.add(seatId(c, s), seat);
+      }
+    }
+    JsonObject trainData = new JsonObject();
+    trainData.add("seats", seats);
+    return trainData;
+  }
+
+  private String bookingReference(int train, Random random) {
+    return random.nextDouble() < booked ? Integer.toHexString(0x75bcd15 + train * 31 + random.nextInt(16)) : "";
+  }
+
+  /** Writes the fleet to a temporary train data file, deleted when the JVM exits */
+  File write(TrainDataFormat format) throws IOException {
+    File file = File.createTempFile("fleet", ".json");
+    file.deleteOnExit();
+    try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+      out.write(json(format).toString());
+    }
+    return file;
+  }
+
+  /** The fleet as the service holds it, with every train loaded */
+  InventoryStore inventory(TrainDataFormat format) throws IOException {
+    InventoryStore inventory = InventoryStore.open(write(format), format);
+    for (TrainInventory train : inventory.trains()) {
+      train.seatCount();
+    }
+    return inventory;
+  }
+}
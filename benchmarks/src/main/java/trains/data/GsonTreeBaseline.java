@@ -0,0 +1,116 @@
+package trains.data;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * How the first versions of the service did things, keeping every train as a Gson tree and pretty
+ * printing it for each response, so the benchmarks have something to compare against. Each method is
+ * the original code, give or take the HTTP plumbing.
+ */
+final class GsonTreeBaseline {
+
+  private GsonTreeBaseline() {
+  }
+
+  static JsonObject readTrainData(File trainData) throws FileNotFoundException {
+    JsonParser jsonParser = new JsonParser();
+    return jsonParser.parse(new FileReader(trainData)).getAsJsonObject();
+  }
+
+  static String prettyJsonFrom(JsonElement data) {
+    return new GsonBuilder().setPrettyPrinting().create().toJson(data);
+  }
+
+  /** Version 1 */
+  static JsonObject findSeat(JsonElement trainData, String requestedSeat) {
+    String coachId = coachFrom(requestedSeat);
+    String seatNum = seatNumFrom(requestedSeat);
+    JsonArray coachesData = trainData.getAsJsonObject().get("coaches").getAsJsonArray();
+    for (JsonElement aCoachesData : coachesData) {
+      JsonObject coach = aCoachesData.getAsJsonObject();
+      if (coach.get("coach").getAsString().equals(coachId)) {
+        JsonArray seatsData = coach.getAsJsonArray("seats");
+        for (JsonElement aSeatsData : seatsData) {
+          JsonObject seat = aSeatsData.getAsJsonObject();
+          if (seat.get("seat_number").getAsString().equals(seatNum)) {
+            return seat;
+          }
+        }
+      }
+    }
+    throw new IllegalArgumentException(String.format("seat not found %s", requestedSeat));
+  }
+
+  private static String seatNumFrom(String seat) {
+    return seat.replaceAll("[A-Z]+", "");
+  }
+
+  private static String coachFrom(String seat) {
+    return seat.replaceAll("\\d+", "");
+  }
+
+  /** Version 2 */
+  static JsonObject seatFromMap(JsonObject trainData, String seat) {
+    return trainData.getAsJsonObject("seats").getAsJsonObject(seat);
+  }
+
+  private static JsonObject seat(JsonObject trainData, String seat, TrainDataFormat format) {
+    return format == TrainDataFormat.COACHES ? findSeat(trainData, seat) : seatFromMap(trainData, seat);
+  }
+
+  /**
+   * /reserve: checks none of the seats is booked with another reference, books them, then renders the
+   * train. Returns null rather than an error response if a seat is already booked.
+   */
+  static String reserve(JsonObject data, String trainId, String seatsJson, String bookingRef, TrainDataFormat format) {
+    if (!data.has(trainId)) return null;
+
+    JsonObject trainData = data.get(trainId).getAsJsonObject();
+    JsonArray seats = new JsonParser().parse(seatsJson).getAsJsonArray();
+
+    // Validate the reservation details
+    Iterator<JsonElement> seatsIterator = seats.iterator();
+    while (seatsIterator.hasNext()) {
+      String seat = seatsIterator.next().getAsString();
+      String existingReservation = seat(trainData, seat, format).get("booking_reference").getAsString();
+      if (!"".equals(existingReservation) && !(existingReservation.equals(bookingRef))) {
+        return null;
+      }
+    }
+
+    // Update the reservation data
+    seatsIterator = seats.iterator();
+    while (seatsIterator.hasNext()) {
+      String seat = seatsIterator.next().getAsString();
+      seat(trainData, seat, format).addProperty("booking_reference", bookingRef);
+    }
+
+    return prettyJsonFrom(data.get(trainId));
+  }
+
+  /** /reset */
+  static void reset(JsonObject data, String trainId, TrainDataFormat format) {
+    JsonObject trainData = data.get(trainId).getAsJsonObject();
+    if (format == TrainDataFormat.COACHES) {
+      for (JsonElement aCoachesData : trainData.get("coaches").getAsJsonArray()) {
+        for (JsonElement aSeatsData : aCoachesData.getAsJsonObject().getAsJsonArray("seats")) {
+          aSeatsData.getAsJsonObject().addProperty("booking_reference", "");
+        }
+      }
+    } else {
+      for (Map.Entry<String, JsonElement> entry : trainData.getAsJsonObject("seats").entrySet()) {
+        entry.getValue().getAsJsonObject().addProperty("booking_reference", "");
+      }
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package trains.data;
+
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a whole fleet's train data when the service starts, from JSON or the binary form.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBenchmark {
+
+  @Param({"COACHES", "SEATS"})
+  public TrainDataFormat format;
+
+  @Param({"1000"})
+  public int trains;
+
+  @Param({"8"})
+  public int coaches;
+
+  @Param({"50"})
+  public int seatsPerCoach;
+
+  private File json;
+  private File binary;
+
+  @Setup
+  public void setUp() throws IOException {
+    Fleet fleet = new Fleet(trains, coaches, seatsPerCoach, 0.5, 42);
+    json = fleet.write(format);
+    binary = File.createTempFile("fleet", ".bin");
+    binary.deleteOnExit();
+    BinaryTrainData.write(InventoryStore.open(json, format), binary);
+  }
+
+  /** As it was: the whole file parsed into one Gson tree */
+  @Benchmark
+  public JsonObject baselineReadTrainData() throws IOException {
+    return GsonTreeBaseline.readTrainData(json);
+  }
+
+  /** What the service does at start up now: finds where each train is, reading their seats later */
+  @Benchmark
+  public InventoryStore indexJson() throws IOException {
+    return InventoryStore.open(json, format);
+  }
+
+  /** Indexing and then reading every train, as the service ends up doing once every train has been asked for */
+  @Benchmark
+  public InventoryStore indexJsonAndLoadEveryTrain() throws IOException {
+    InventoryStore inventory = InventoryStore.open(json, format);
+    for (TrainInventory train : inventory.trains()) {
+      train.seatCount();
+    }
+    return inventory;
+  }
+
+  @Benchmark
+  public InventoryStore readBinary() throws IOException {
+    return BinaryTrainData.read(binary);
+  }
+}
@@ -0,0 +1,119 @@
+package trains.data;
+
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vertx.java.core.buffer.Buffer;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What /reserve does with a request once its form has been read: check the attributes, check none of
+ * the seats is booked to someone else, book them and render the train for the response.
+ *
+ * Every reservation books the next two seats, working through the fleet a train at a time, so seats are
+ * always free and every response has changed. A train that has been booked up is reset before it's used
+ * again, which both versions pay for equally.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReserveBenchmark {
+
+  private static final String BOOKING_REFERENCE = "75bcd15";
+
+  @Param({"COACHES", "SEATS"})
+  public TrainDataFormat format;
+
+  @Param({"100"})
+  public int trains;
+
+  @Param({"8"})
+  public int coaches;
+
+  @Param({"50"})
+  public int seatsPerCoach;
+
+  private String[] trainIds;
+  private String[] seatsJson;
+  private int reservations;
+
+  private JsonObject tree;
+  private InventoryStore inventory;
+  private RenderedTrains renderedTrains;
+
+  @Setup
+  public void setUp() throws IOException {
+    Fleet fleet = new Fleet(trains, coaches, seatsPerCoach, 0, 42);
+    trainIds = new String[trains];
+    for (int t = 0; t < trains; t++) {
+      trainIds[t] = Fleet.trainId(t);
+    }
+    List<String> seatIds = fleet.seatIds();
+    seatsJson = new String[seatIds.size() / 2];
+    for (int i = 0; i < seatsJson.length; i++) {
+      seatsJson[i] = "[\"" + seatIds.get(2 * i) + "\", \"" + seatIds.get(2 * i + 1) + "\"]";
+    }
+
+    tree = fleet.json(format);
+    inventory = fleet.inventory(format);
+    renderedTrains = new RenderedTrains(format, JsonOutput.COMPACT);
+  }
+
+  /** The train the next reservation is on */
+  private int nextTrain() {
+    return reservations % trains;
+  }
+
+  private int nextSeats() {
+    return (reservations / trains) % seatsJson.length;
+  }
+
+  /** Whether the next reservation's train has to be reset first */
+  private boolean bookedUp() {
+    return reservations >= trains && nextSeats() == 0;
+  }
+
+  /** As it was: the Gson tree checked and updated in place, then pretty printed */
+  @Benchmark
+  public String baselineReserve() {
+    String trainId = trainIds[nextTrain()];
+    if (bookedUp()) GsonTreeBaseline.reset(tree, trainId, format);
+    String rendered = GsonTreeBaseline.reserve(tree, trainId, seatsJson[nextSeats()], BOOKING_REFERENCE, format);
+    reservations++;
+    return rendered;
+  }
+
+  @Benchmark
+  public Buffer reserve() {
+    String trainId = trainIds[nextTrain()];
+    String seats = seatsJson[nextSeats()];
+    boolean bookedUp = bookedUp();
+    reservations++;
+    if (TrainDataService.emptyOrNull(trainId, seats, BOOKING_REFERENCE) || !inventory.has(trainId)) {
+      throw new IllegalStateException("The benchmark's request should be valid");
+    }
+
+    TrainInventory train = inventory.train(trainId);
+    if (bookedUp) train.reset();
+    Reservation reservation = train.reserve(TrainDataService.seatIdsFrom(seats), BOOKING_REFERENCE);
+    if (reservation.outcome() != Reservation.Outcome.RESERVED) {
+      throw new IllegalStateException(reservation.error());
+    }
+    return renderedTrains.get(train).body();
+  }
+}
@@ -0,0 +1,81 @@
+package trains.data;
+
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding a seat on a train from its id, e.g. "12C", in a random order so nothing is helped along by
+ * always asking for the same seat.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SeatLookupBenchmark {
+
+  @Param({"8"})
+  public int coaches;
+
+  @Param({"10", "100"})
+  public int seatsPerCoach;
+
+  private String[] seatIds;
+  private int next;
+  private JsonObject coachesTree;
+  private JsonObject seatsTree;
+  private TrainInventory train;
+
+  @Setup
+  public void setUp() throws IOException {
+    Fleet fleet = new Fleet(1, coaches, seatsPerCoach, 0.5, 42);
+    List<String> shuffled = fleet.seatIds();
+    Collections.shuffle(shuffled, new Random(42));
+    seatIds = shuffled.toArray(new String[shuffled.size()]);
+
+    coachesTree = fleet.json(TrainDataFormat.COACHES).getAsJsonObject(Fleet.trainId(0));
+    seatsTree = fleet.json(TrainDataFormat.SEATS).getAsJsonObject(Fleet.trainId(0));
+    train = fleet.inventory(TrainDataFormat.SEATS).train(Fleet.trainId(0));
+  }
+
+  private String nextSeatId() {
+    String seatId = seatIds[next];
+    next = (next + 1) % seatIds.length;
+    return seatId;
+  }
+
+  /** Version 1 as it was: a regex to split the id then a scan of the coaches and their seats */
+  @Benchmark
+  public JsonObject baselineV1FindSeat() {
+    return GsonTreeBaseline.findSeat(coachesTree, nextSeatId());
+  }
+
+  /** Version 2 as it was: the Gson tree's map of seats */
+  @Benchmark
+  public JsonObject baselineV2SeatMap() {
+    return GsonTreeBaseline.seatFromMap(seatsTree, nextSeatId());
+  }
+
+  /** Both versions now, see {@link SeatIndex} */
+  @Benchmark
+  public int seatIndex() {
+    return train.findSeat(nextSeatId());
+  }
+}
@@ -0,0 +1,65 @@
+package trains.data;
+
+import com.google.gson.JsonObject;
+import io.netty.buffer.ByteBuf;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering a train as the JSON /data_for_train returns, in either version's format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+  @Param({"COACHES", "SEATS"})
+  public TrainDataFormat format;
+
+  @Param({"8"})
+  public int coaches;
+
+  @Param({"10", "100"})
+  public int seatsPerCoach;
+
+  private JsonObject tree;
+  private TrainInventory train;
+
+  @Setup
+  public void setUp() throws IOException {
+    Fleet fleet = new Fleet(1, coaches, seatsPerCoach, 0.5, 42);
+    tree = fleet.json(format).getAsJsonObject(Fleet.trainId(0));
+    train = fleet.inventory(format).train(Fleet.trainId(0));
+  }
+
+  /** As it was: a new pretty printing Gson for every response, writing the tree to a String */
+  @Benchmark
+  public String baselinePrettyJsonFrom() {
+    return GsonTreeBaseline.prettyJsonFrom(tree);
+  }
+
+  @Benchmark
+  public ByteBuf streamedPretty() {
+    return JsonOutput.PRETTY.render(train, format);
+  }
+
+  @Benchmark
+  public ByteBuf streamedCompact() {
+    return JsonOutput.COMPACT.render(train, format);
+  }
+}
@@ -1,25 +1,212 @@
 package trains.bookingref;
 
 import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.eventbus.Message;
 import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.HttpServerResponse;
 import org.vertx.java.platform.Verticle;
 import org.vertx.java.core.http.RouteMatcher;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentMap;
+
 public class BookingReferenceService extends Verticle {
 
-    private long CURRENT_ID = 1000000;
+    public static final String NEXT_BOOKING_REFERENCE = "trains.bookingref.next";
+
+    private static final String HIGH_WATER_MARK_FILE = "booking_reference.hwm";
+    private static final long BLOCK = 10000;
+    private static final int MAX_COUNT = 1000;
+
+    private ReferenceCounter counter;
+    private Metrics metrics;
 
     @Override
     public void start() {
         RouteMatcher rm = new RouteMatcher();
+        counter = sharedCounter();
+        metrics = sharedMetrics();
+
+        /*
+        GET http://localhost:9082/booking_reference returns a new booking reference.
+        Add ?count=N to get N of them at once, one per line, e.g. to keep a few in hand.
+        */
         rm.get("/booking_reference", new Handler<HttpServerRequest>() {
+            private final Metrics.Route route = metrics.route("/booking_reference");
+
             @Override
             public void handle(HttpServerRequest req) {
+                long start = System.nanoTime();
                 req.response().putHeader("Content-Type", "text/plain");
-                req.response().end(Long.toString(CURRENT_ID++));
+                int count;
+                try {
+                    String countParam = req.params().get("count");
+                    count = countParam == null ? 1 : Integer.parseInt(countParam);
+                } catch (NumberFormatException e) {
+                    count = 0;
+                }
+                if (count < 1 || count > MAX_COUNT) {
+                    error(route, start, req.response(), "count should be a number from 1 to " + MAX_COUNT, 400);
+                    return;
+                }
+                String references = issue(count);
+                if (references == null) {
+                    error(route, start, req.response(), "No booking references can be issued at the moment", 500);
+                    return;
+                }
+                end(route, start, req.response(), references);
+            }
+        });
+
+        /*
+        Verticles deployed alongside this one can get booking references over the event bus instead, by
+        sending trains.bookingref.next a message with how many they want, as a number or a string of
+        digits, or an empty one for just one.
+        The reply is the same as the body above, and a request that can't be met is failed with the
+        status code the route would have given.
+        */
+        vertx.eventBus().registerHandler(NEXT_BOOKING_REFERENCE, new Handler<Message<Object>>() {
+            private final Metrics.Route route = metrics.route(NEXT_BOOKING_REFERENCE);
+
+            @Override
+            public void handle(Message<Object> message) {
+                long start = System.nanoTime();
+                int count = countFrom(message.body());
+                if (count < 1 || count > MAX_COUNT) {
+                    fail(route, start, message, "count should be a number from 1 to " + MAX_COUNT, 400);
+                    return;
+                }
+                String references = issue(count);
+                if (references == null) {
+                    fail(route, start, message, "No booking references can be issued at the moment", 500);
+                    return;
+                }
+                route.record(System.nanoTime() - start, 200, references.length());
+                message.reply(references);
+            }
+        });
+
+        /*
+        GET http://localhost:9082/metrics shows how the service is doing, in the Prometheus text format.
+        */
+        rm.get("/metrics", new Handler<HttpServerRequest>() {
+            @Override
+            public void handle(HttpServerRequest req) {
+                req.response().putHeader("Content-Type", "text/plain; version=0.0.4");
+                req.response().end(metrics.render());
             }
         });
 
         vertx.createHttpServer().requestHandler(rm).listen(9082);
     }
+
+    @Override
+    public void stop() {
+        ConcurrentMap<String, ReferenceCounter> sharedData = vertx.sharedData().getMap(BookingReferenceService.class.getName());
+        synchronized (sharedData) {
+            if (--counter.users == 0) {
+                sharedData.remove(HIGH_WATER_MARK_FILE);
+            }
+        }
+        // Left behind, the metrics would outlive a redeploy, and their class with them
+        ConcurrentMap<String, Metrics> sharedMetrics = vertx.sharedData().getMap(Metrics.class.getName());
+        synchronized (sharedMetrics) {
+            if (--metrics.users == 0) {
+                sharedMetrics.remove("metrics");
+            }
+        }
+    }
+
+    /** count new booking references, one per line, or null if they can't be issued */
+    private String issue(int count) {
+        long first;
+        try {
+            first = counter.lease(count);
+        } catch (IOException e) {
+            container.logger().error("Couldn't record the booking reference high-water mark", e);
+            return null;
+        }
+
+        StringBuilder references = new StringBuilder(count * 8);
+        for (long id = first; id < first + count; id++) {
+            if (id > first) references.append('\n');
+            references.append(id);
+        }
+        metrics.issued(count);
+        return references.toString();
+    }
+
+    /** How many references the message asks for, or 0 if it doesn't say a whole number of them */
+    private static int countFrom(Object body) {
+        if (body == null) return 1;
+        if (body instanceof Number) {
+            double count = ((Number) body).doubleValue();
+            return count == Math.rint(count) && count >= 1 && count <= MAX_COUNT ? (int) count : 0;
+        }
+        if (body instanceof String) {
+            String count = ((String) body).trim();
+            if (count.isEmpty()) return 1;
+            try {
+                return Integer.parseInt(count);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    private static void fail(Metrics.Route route, long start, Message<?> message, String error, int statusCode) {
+        route.record(System.nanoTime() - start, statusCode, error.length());
+        message.fail(statusCode, error);
+    }
+
+    private static void error(Metrics.Route route, long start, HttpServerResponse resp, String message, int statusCode) {
+        resp.setStatusCode(statusCode);
+        end(route, start, resp, message);
+    }
+
+    private static void end(Metrics.Route route, long start, HttpServerResponse resp, String body) {
+        Buffer buffer = new Buffer(body);
+        route.record(System.nanoTime() - start, resp.getStatusCode(), buffer.length());
+        resp.end(buffer);
+    }
+
+    /** The metrics are kept in shared data too, so they add up what every instance of the verticle has done */
+    private Metrics sharedMetrics() {
+        ConcurrentMap<String, Metrics> sharedData = vertx.sharedData().getMap(Metrics.class.getName());
+        synchronized (sharedData) {
+            Metrics shared = sharedData.get("metrics");
+            if (shared == null) {
+                shared = new Metrics("booking_reference");
+                sharedData.put("metrics", shared);
+            }
+            shared.users++;
+            return shared;
+        }
+    }
+
+    /**
+     * Every instance of the verticle hands out ids from the same counter, so the first one to start
+     * opens it and leaves it in shared data for the rest.
+     */
+    private ReferenceCounter sharedCounter() {
+        ConcurrentMap<String, ReferenceCounter> sharedData = vertx.sharedData().getMap(BookingReferenceService.class.getName());
+        synchronized (sharedData) {
+            ReferenceCounter shared = sharedData.get(HIGH_WATER_MARK_FILE);
+            if (shared == null) {
+                String file = container.config().getString("high_water_mark_file", HIGH_WATER_MARK_FILE);
+                try {
+                    shared = ReferenceCounter.open(new File(file), BLOCK);
+                } catch (IOException e) {
+                    container.logger().fatal("Couldn't read the booking reference high-water mark from " + file, e);
+                    throw new IllegalStateException(e);
+                }
+                sharedData.put(HIGH_WATER_MARK_FILE, shared);
+            }
+            shared.users++;
+            return shared;
+        }
+    }
 }
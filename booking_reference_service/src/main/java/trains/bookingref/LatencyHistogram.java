@@ -0,0 +1,62 @@
+package trains.bookingref;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how long things take in buckets whose width grows with the value, in the style of HdrHistogram:
+ * each power of two of microseconds is split into 16 equal buckets, so any value is placed to within
+ * about 6% whether it's a few microseconds or several minutes.
+ *
+ * Recording is a few shifts and an atomic increment, with no locking or allocation, so it's cheap enough
+ * to do on every request from every thread.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MAGNITUDE = 40;
+    private static final long MAX_MICROS = (1L << (MAX_MAGNITUDE + 1)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        counts.incrementAndGet(bucketOf(Math.min(Math.max(nanos, 0) / 1000, MAX_MICROS)));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long totalNanos() {
+        return totalNanos.get();
+    }
+
+    /** How many values recorded were under the limit, counting whole buckets only */
+    public long countBelow(long micros) {
+        long below = 0;
+        for (int bucket = 0; bucket < counts.length() && upperBoundOf(bucket) <= micros; bucket++) {
+            below += counts.get(bucket);
+        }
+        return below;
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) return (int) micros;
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+        int subBucket = (int) (micros >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /** The smallest value, in microseconds, too big for the bucket */
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket + 1;
+        int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long width = 1L << (magnitude - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + bucket % SUB_BUCKETS) * width + width;
+    }
+}
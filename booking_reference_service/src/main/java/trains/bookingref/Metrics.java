@@ -0,0 +1,119 @@
+package trains.bookingref;
+
+import org.vertx.java.core.shareddata.Shareable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Request latencies, response counts by status and response sizes for each route, plus how many booking
+ * references have been issued, shown in the Prometheus text format at /metrics.
+ *
+ * Shared by every instance of the service. Recording a response only updates atomic counters, so it
+ * doesn't allocate or lock.
+ */
+final class Metrics implements Shareable {
+
+    private static final int[] STATUSES = {200, 400, 404, 500};
+    private static final double[] BUCKET_SECONDS = {0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private final String prefix;
+    private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<>();
+    private final AtomicLong referencesIssued = new AtomicLong();
+    int users;
+
+    /** Every metric's name starts with the prefix, e.g. "booking_reference" */
+    Metrics(String prefix) {
+        this.prefix = prefix;
+    }
+
+    Route route(String path) {
+        Route route = routes.get(path);
+        if (route == null) {
+            Route newRoute = new Route(path);
+            route = routes.putIfAbsent(path, newRoute);
+            if (route == null) route = newRoute;
+        }
+        return route;
+    }
+
+    void issued(int references) {
+        referencesIssued.addAndGet(references);
+    }
+
+    String render() {
+        StringBuilder out = new StringBuilder(4096);
+
+        String duration = prefix + "_request_duration_seconds";
+        header(out, duration, "histogram", "How long requests took to answer, by route");
+        for (Route route : routes.values()) {
+            for (double le : BUCKET_SECONDS) {
+                sample(out, duration + "_bucket", route.path, "le", format(le), route.latency.countBelow((long) (le * 1000000)));
+            }
+            sample(out, duration + "_bucket", route.path, "le", "+Inf", route.latency.count());
+            out.append(duration).append("_sum{route=\"").append(route.path).append("\"} ").append(format(route.latency.totalNanos() / 1e9)).append('\n');
+            sample(out, duration + "_count", route.path, null, null, route.latency.count());
+        }
+
+        String responses = prefix + "_responses_total";
+        header(out, responses, "counter", "Responses sent, by route and status code");
+        for (Route route : routes.values()) {
+            for (int i = 0; i <= STATUSES.length; i++) {
+                String status = i < STATUSES.length ? Integer.toString(STATUSES[i]) : "other";
+                sample(out, responses, route.path, "status", status, route.statuses.get(i));
+            }
+        }
+
+        String bytes = prefix + "_response_bytes_total";
+        header(out, bytes, "counter", "Bytes of response body sent, by route");
+        for (Route route : routes.values()) {
+            sample(out, bytes, route.path, null, null, route.bytes.get());
+        }
+
+        header(out, prefix + "_issued_total", "counter", "Booking references handed out");
+        out.append(prefix).append("_issued_total ").append(referencesIssued.get()).append('\n');
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String route, String label, String value, long sample) {
+        out.append(name).append("{route=\"").append(route).append('"');
+        if (label != null) out.append(',').append(label).append("=\"").append(value).append('"');
+        out.append("} ").append(sample).append('\n');
+    }
+
+    private static String format(double value) {
+        return Double.toString(value);
+    }
+
+    /** What's been recorded for one route */
+    static final class Route {
+        private final String path;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLongArray statuses = new AtomicLongArray(STATUSES.length + 1);
+        private final AtomicLong bytes = new AtomicLong();
+
+        private Route(String path) {
+            this.path = path;
+        }
+
+        void record(long nanos, int status, int bodyBytes) {
+            latency.record(nanos);
+            statuses.incrementAndGet(indexOf(status));
+            bytes.addAndGet(bodyBytes);
+        }
+
+        private static int indexOf(int status) {
+            for (int i = 0; i < STATUSES.length; i++) {
+                if (STATUSES[i] == status) return i;
+            }
+            return STATUSES.length;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package trains.bookingref;
+
+import org.vertx.java.core.shareddata.Shareable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out booking reference ids, never the same one twice, even across restarts.
+ *
+ * Ids come from an atomic counter so any number of verticle instances can share one counter without
+ * locking. To survive restarts a high-water mark is kept on disk: the counter never passes it, and when
+ * it gets there the mark is moved a block of ids further on and written out before any of those ids are
+ * handed out. A restart carries on from the mark, so ids leased but not yet handed out when the service
+ * stopped are skipped rather than reused, and the disk is written once per block rather than once per id.
+ */
+final class ReferenceCounter implements Shareable {
+
+    private static final long FIRST_ID = 1000000;
+
+    private final File highWaterMarkFile;
+    private final long block;
+    private final AtomicLong next;
+    private volatile long highWaterMark;
+    int users;
+
+    private ReferenceCounter(File highWaterMarkFile, long block, long start) {
+        this.highWaterMarkFile = highWaterMarkFile;
+        this.block = block;
+        this.next = new AtomicLong(start);
+        this.highWaterMark = start;
+    }
+
+    /** Carries on from the high-water mark in the file, or starts afresh if there isn't one */
+    static ReferenceCounter open(File highWaterMarkFile, long block) throws IOException {
+        long start = FIRST_ID;
+        if (highWaterMarkFile.exists()) {
+            String mark = new String(Files.readAllBytes(highWaterMarkFile.toPath()), StandardCharsets.UTF_8).trim();
+            try {
+                start = Math.max(start, Long.parseLong(mark));
+            } catch (NumberFormatException e) {
+                throw new IOException(highWaterMarkFile + " should hold the next booking reference id, not '" + mark + "'", e);
+            }
+        }
+        return new ReferenceCounter(highWaterMarkFile, block, start);
+    }
+
+    /** Leases a contiguous block of ids, returning the first */
+    long lease(int count) throws IOException {
+        long first = next.getAndAdd(count);
+        if (first + count > highWaterMark) {
+            raiseHighWaterMark(first + count);
+        }
+        return first;
+    }
+
+    private synchronized void raiseHighWaterMark(long atLeast) throws IOException {
+        if (atLeast <= highWaterMark) return;
+
+        long mark = atLeast + block;
+        File partial = new File(highWaterMarkFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(partial)) {
+            out.write(Long.toString(mark).getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        Files.move(partial.toPath(), highWaterMarkFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        highWaterMark = mark;
+    }
+}
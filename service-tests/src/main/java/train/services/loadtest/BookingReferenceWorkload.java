@@ -0,0 +1,19 @@
+package train.services.loadtest;
+
+import com.mashape.unirest.http.Unirest;
+
+/**
+ * Asks the booking reference service for one reference at a time, as a reservation would.
+ */
+final class BookingReferenceWorkload implements Workload {
+  private final String url;
+
+  BookingReferenceWorkload(String baseUrl) {
+    this.url = baseUrl + "/booking_reference";
+  }
+
+  @Override
+  public Request next() {
+    return new Request("booking_reference", Unirest.get(url));
+  }
+}
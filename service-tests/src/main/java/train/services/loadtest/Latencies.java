@@ -0,0 +1,34 @@
+package train.services.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Every latency recorded, in microseconds, so percentiles are exact rather than estimated.
+ * Responses are recorded from the HTTP client's threads, so recording is synchronized.
+ */
+final class Latencies {
+  private long[] micros = new long[1024];
+  private int count;
+  private boolean sorted;
+
+  synchronized void record(long nanos) {
+    if (count == micros.length) micros = Arrays.copyOf(micros, count * 2);
+    micros[count++] = nanos / 1000;
+    sorted = false;
+  }
+
+  synchronized int count() {
+    return count;
+  }
+
+  /** The latency that the given percentage of those recorded were at or under, e.g. 99.9 */
+  synchronized long percentile(double percent) {
+    if (count == 0) return 0;
+    if (!sorted) {
+      Arrays.sort(micros, 0, count);
+      sorted = true;
+    }
+    int rank = (int) Math.ceil(percent / 100 * count);
+    return micros[Math.max(0, Math.min(count, rank) - 1)];
+  }
+}
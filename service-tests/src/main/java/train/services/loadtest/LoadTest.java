@@ -0,0 +1,206 @@
+package train.services.loadtest;
+
+import com.mashape.unirest.http.HttpResponse;
+import com.mashape.unirest.http.Unirest;
+import com.mashape.unirest.http.async.Callback;
+import com.mashape.unirest.http.exceptions.UnirestException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends requests to a locally running service at a constant rate, however quickly it responds, and
+ * reports the throughput and latency percentiles for each kind of request.
+ *
+ * A request that can't be sent on time, because the service or the client has fallen behind, is still
+ * timed from when it should have been sent. Timing from when it was actually sent would leave out the
+ * wait, making a service that stalls look better than it is (coordinated omission). Both are reported:
+ * "latency" from the scheduled time, "service time" from the actual send.
+ *
+ * The service isn't started here. Start it first by running ./gradlew in its own directory, i.e.
+ * train_data_service_v1 or train_data_service_v2 (port 9081) or booking_reference_service (port 9082),
+ * and then run the load test from service-tests, e.g.
+ *
+ * ./gradlew loadTest -Pload="service=train_data rate=500 seconds=30"
+ *
+ * service     train_data (the default, either version) or booking_reference
+ * rate        requests per second, 200 by default
+ * seconds     how long to measure for once warmed up, 30 by default
+ * warmup      seconds of requests that aren't counted, 5 by default
+ * trains      the trains to use, express_2000,local_1000 by default
+ * read        percentage of train data requests that read a train, 70 by default
+ * reserve     percentage that reserve seats, 20 by default; the rest try to reserve seats already booked
+ */
+public class LoadTest {
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9, 100};
+  private static final long DRAIN_SECONDS = 10;
+
+  private final Workload workload;
+  private final double rate;
+  private final long warmupNanos;
+  private final long measuredNanos;
+  private final ConcurrentMap<String, Results> results = new ConcurrentHashMap<>();
+  private final AtomicInteger outstanding = new AtomicInteger();
+
+  LoadTest(Workload workload, double rate, long warmupSeconds, long seconds) {
+    this.workload = workload;
+    this.rate = rate;
+    this.warmupNanos = TimeUnit.SECONDS.toNanos(warmupSeconds);
+    this.measuredNanos = TimeUnit.SECONDS.toNanos(seconds);
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<>();
+    for (String arg : args) {
+      String[] option = arg.split("=", 2);
+      if (option.length != 2) throw new IllegalArgumentException("Options should look like name=value, not " + arg);
+      options.put(option[0], option[1]);
+    }
+
+    String service = option(options, "service", "train_data");
+    String url;
+    Workload workload;
+    if (service.equals("train_data")) {
+      int read = Integer.parseInt(option(options, "read", "70"));
+      int reserve = Integer.parseInt(option(options, "reserve", "20"));
+      url = "http://127.0.0.1:9081";
+      workload = new TrainDataWorkload(url, option(options, "trains", "express_2000,local_1000").split(","), read, reserve);
+    } else if (service.equals("booking_reference")) {
+      url = "http://127.0.0.1:9082";
+      workload = new BookingReferenceWorkload(url);
+    } else {
+      throw new IllegalArgumentException("service should be train_data or booking_reference, not " + service);
+    }
+
+    // Enough connections that requests are never queued waiting for one
+    Unirest.setConcurrency(10000, 10000);
+    try {
+      try {
+        Unirest.get(url).asString();
+      } catch (UnirestException e) {
+        throw new IllegalStateException("Nothing answered at " + url + ", start the " + service + " service first with ./gradlew in its own directory", e);
+      }
+      LoadTest test = new LoadTest(workload, Double.parseDouble(option(options, "rate", "200")),
+          Long.parseLong(option(options, "warmup", "5")), Long.parseLong(option(options, "seconds", "30")));
+      test.run();
+      test.report();
+    } finally {
+      Unirest.shutdown();
+    }
+  }
+
+  private static String option(Map<String, String> options, String name, String defaultValue) {
+    return options.containsKey(name) ? options.get(name) : defaultValue;
+  }
+
+  void run() {
+    long start = System.nanoTime();
+    long measureFrom = start + warmupNanos;
+    long end = measureFrom + measuredNanos;
+    for (long i = 0; ; i++) {
+      final long scheduled = start + (long) (i * 1e9 / rate);
+      if (scheduled >= end) break;
+      for (long wait = scheduled - System.nanoTime(); wait > 0; wait = scheduled - System.nanoTime()) {
+        LockSupport.parkNanos(wait);
+      }
+      send(workload.next(), scheduled, scheduled >= measureFrom);
+    }
+
+    long drainUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_SECONDS);
+    while (outstanding.get() > 0 && System.nanoTime() < drainUntil) {
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+    }
+  }
+
+  private void send(Workload.Request request, final long scheduled, boolean measured) {
+    final Results results = measured ? resultsFor(request.operation) : null;
+    final long sent = System.nanoTime();
+    outstanding.incrementAndGet();
+    request.http.asStringAsync(new Callback<String>() {
+      @Override
+      public void completed(HttpResponse<String> response) {
+        long now = System.nanoTime();
+        if (results != null) results.completed(response.getStatus(), now - scheduled, now - sent);
+        outstanding.decrementAndGet();
+      }
+
+      @Override
+      public void failed(UnirestException e) {
+        if (results != null) results.failed.incrementAndGet();
+        outstanding.decrementAndGet();
+      }
+
+      @Override
+      public void cancelled() {
+        if (results != null) results.failed.incrementAndGet();
+        outstanding.decrementAndGet();
+      }
+    });
+  }
+
+  private Results resultsFor(String operation) {
+    Results forOperation = results.get(operation);
+    if (forOperation == null) {
+      Results newResults = new Results();
+      forOperation = results.putIfAbsent(operation, newResults);
+      if (forOperation == null) forOperation = newResults;
+    }
+    return forOperation;
+  }
+
+  void report() {
+    double seconds = measuredNanos / 1e9;
+    int completed = 0;
+    for (Results forOperation : results.values()) {
+      completed += forOperation.latency.count();
+    }
+    System.out.printf("%n%.0f requests/s asked for, %.1f requests/s completed over %.0fs, %d not answered%n",
+        rate, completed / seconds, seconds, outstanding.get());
+
+    for (Map.Entry<String, Results> entry : new TreeMap<>(results).entrySet()) {
+      Results forOperation = entry.getValue();
+      System.out.printf("%n%s: %d completed, %d failed, by status %s%n",
+          entry.getKey(), forOperation.latency.count(), forOperation.failed.get(), forOperation.statuses());
+      printPercentiles("latency", forOperation.latency);
+      printPercentiles("service time", forOperation.serviceTime);
+    }
+  }
+
+  private static void printPercentiles(String name, Latencies latencies) {
+    StringBuilder line = new StringBuilder(String.format("  %-13s", name));
+    for (double percentile : PERCENTILES) {
+      String label = percentile == 100 ? "max" : "p" + (percentile == Math.floor(percentile) ? Long.toString((long) percentile) : Double.toString(percentile));
+      line.append(String.format("  %s %.3fms", label, latencies.percentile(percentile) / 1000.0));
+    }
+    System.out.println(line);
+  }
+
+  private static final class Results {
+    private final Latencies latency = new Latencies();
+    private final Latencies serviceTime = new Latencies();
+    private final ConcurrentMap<Integer, AtomicInteger> statuses = new ConcurrentHashMap<>();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private void completed(int status, long latencyNanos, long serviceTimeNanos) {
+      latency.record(latencyNanos);
+      serviceTime.record(serviceTimeNanos);
+      AtomicInteger count = statuses.get(status);
+      if (count == null) {
+        AtomicInteger newCount = new AtomicInteger();
+        count = statuses.putIfAbsent(status, newCount);
+        if (count == null) count = newCount;
+      }
+      count.incrementAndGet();
+    }
+
+    private Map<Integer, AtomicInteger> statuses() {
+      return new TreeMap<>(statuses);
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package train.services.loadtest;
+
+import com.mashape.unirest.http.HttpResponse;
+import com.mashape.unirest.http.JsonNode;
+import com.mashape.unirest.http.Unirest;
+import com.mashape.unirest.http.exceptions.UnirestException;
+import com.mashape.unirest.request.BaseRequest;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A mix of reads, reservations and conflicting reservations against either version of the train data
+ * service, spread evenly over the trains.
+ *
+ * Reservations book each train's seats two at a time, each with a new booking reference, and reset the
+ * train once every seat has been booked so there are always seats left to book. A conflicting
+ * reservation asks for the seats the last reservation on the train booked, with a different booking
+ * reference, so should be turned down.
+ */
+final class TrainDataWorkload implements Workload {
+  private final String baseUrl;
+  private final String[] trainIds;
+  private final List<List<String>> seatPairs = new ArrayList<>();
+  private final int readPercent;
+  private final int reservePercent;
+  private final Random random = new Random(42);
+
+  private final long[] reservations;
+  private final int[] lastBooked;
+  private long bookingReference = 0x75bcd15;
+  private int nextTrain;
+
+  TrainDataWorkload(String baseUrl, String[] trainIds, int readPercent, int reservePercent) throws UnirestException {
+    this.baseUrl = baseUrl;
+    this.trainIds = trainIds;
+    this.readPercent = readPercent;
+    this.reservePercent = reservePercent;
+    this.reservations = new long[trainIds.length];
+    this.lastBooked = new int[trainIds.length];
+    Arrays.fill(lastBooked, -1);
+    for (String trainId : trainIds) {
+      seatPairs.add(pairsOf(seatIdsOf(trainId)));
+    }
+  }
+
+  /** Works with both versions: version 1 lists seats under their coaches, version 2 keys them by id */
+  private List<String> seatIdsOf(String trainId) throws UnirestException {
+    HttpResponse<JsonNode> response = Unirest.get(baseUrl + "/data_for_train/" + trainId).asJson();
+    if (response.getStatus() != 200) {
+      throw new IllegalArgumentException("Couldn't get " + trainId + " from the train data service: " + response.getStatus());
+    }
+
+    List<String> seatIds = new ArrayList<>();
+    JSONObject train = response.getBody().getObject();
+    if (train.has("seats")) {
+      for (Object seatId : train.getJSONObject("seats").keySet()) {
+        seatIds.add((String) seatId);
+      }
+    } else {
+      JSONArray coaches = train.getJSONArray("coaches");
+      for (int c = 0; c < coaches.length(); c++) {
+        JSONArray seats = coaches.getJSONObject(c).getJSONArray("seats");
+        for (int s = 0; s < seats.length(); s++) {
+          seatIds.add(seats.getJSONObject(s).getString("seat_number") + coaches.getJSONObject(c).getString("coach"));
+        }
+      }
+    }
+    return seatIds;
+  }
+
+  private static List<String> pairsOf(List<String> seatIds) {
+    List<String> pairs = new ArrayList<>();
+    for (int i = 0; i + 1 < seatIds.size(); i += 2) {
+      pairs.add("[\"" + seatIds.get(i) + "\", \"" + seatIds.get(i + 1) + "\"]");
+    }
+    return pairs;
+  }
+
+  @Override
+  public Request next() {
+    int train = nextTrain;
+    nextTrain = (nextTrain + 1) % trainIds.length;
+    int percent = random.nextInt(100);
+    if (percent < readPercent) {
+      return new Request("read", Unirest.get(baseUrl + "/data_for_train/" + trainIds[train]));
+    } else if (percent < readPercent + reservePercent) {
+      return reserve(train);
+    } else {
+      return conflictingReservation(train);
+    }
+  }
+
+  private Request reserve(int train) {
+    List<String> pairs = seatPairs.get(train);
+    int pair = (int) (reservations[train]++ % (pairs.size() + 1));
+    if (pair == pairs.size()) {
+      lastBooked[train] = -1;
+      return new Request("reset", Unirest.get(baseUrl + "/reset/" + trainIds[train]));
+    }
+    lastBooked[train] = pair;
+    return new Request("reserve", reservation(train, pairs.get(pair)));
+  }
+
+  /** Nothing can conflict on a train that's just been reset, so that gets an ordinary reservation instead */
+  private Request conflictingReservation(int train) {
+    if (lastBooked[train] < 0) return reserve(train);
+    return new Request("conflicting_reserve", reservation(train, seatPairs.get(train).get(lastBooked[train])));
+  }
+
+  private BaseRequest reservation(int train, String seats) {
+    Map<String, Object> params = new HashMap<>();
+    params.put("train_id", trainIds[train]);
+    params.put("seats", seats);
+    params.put("booking_reference", Long.toHexString(bookingReference++));
+    return Unirest.post(baseUrl + "/reserve").fields(params);
+  }
+}
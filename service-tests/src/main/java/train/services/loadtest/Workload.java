@@ -0,0 +1,21 @@
+package train.services.loadtest;
+
+import com.mashape.unirest.request.BaseRequest;
+
+/**
+ * The requests a load test sends, one after another. Only ever called from the thread sending them.
+ */
+interface Workload {
+
+  Request next();
+
+  final class Request {
+    final String operation;
+    final BaseRequest http;
+
+    Request(String operation, BaseRequest http) {
+      this.operation = operation;
+      this.http = http;
+    }
+  }
+}
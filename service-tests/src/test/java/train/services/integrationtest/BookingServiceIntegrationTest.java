@@ -4,6 +4,7 @@ import com.mashape.unirest.http.HttpResponse;
 import com.mashape.unirest.http.Unirest;
 import org.junit.Test;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 
@@ -15,4 +16,27 @@ public class BookingServiceIntegrationTest {
     assertThat(bookingRefResponse.getStatus(), is(200));
     Integer.parseInt(bookingRefResponse.getBody());
   }
+
+  @Test
+  public void aBlockOfConsecutiveReferencesCanBeLeasedInOneRequest() throws Exception {
+    HttpResponse<String> bookingRefResponse = Unirest.get("http://127.0.0.1:9082/booking_reference?count=5").asString();
+
+    assertThat(bookingRefResponse.getStatus(), is(200));
+    String[] references = bookingRefResponse.getBody().split("\n");
+    assertThat(references.length, is(5));
+    for (int i = 1; i < references.length; i++) {
+      assertThat(Long.parseLong(references[i]), is(Long.parseLong(references[0]) + i));
+    }
+  }
+
+  @Test
+  public void issuedReferencesAreCountedInTheMetrics() throws Exception {
+    Unirest.get("http://127.0.0.1:9082/booking_reference").asString();
+
+    HttpResponse<String> metricsResponse = Unirest.get("http://127.0.0.1:9082/metrics").asString();
+
+    assertThat(metricsResponse.getStatus(), is(200));
+    assertThat(metricsResponse.getBody(), containsString("booking_reference_responses_total{route=\"/booking_reference\",status=\"200\"}"));
+    assertThat(metricsResponse.getBody(), containsString("booking_reference_issued_total"));
+  }
 }
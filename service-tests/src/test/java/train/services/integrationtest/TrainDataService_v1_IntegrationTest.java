@@ -9,6 +9,12 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -27,6 +33,16 @@ public class TrainDataService_v1_IntegrationTest {
     assertThat(resultJson.getObject().get("coaches"), is(notNullValue()));
   }
 
+  @Test
+  public void unchangedTrainDataIsNotResentToAClientThatAlreadyHasIt() throws Exception {
+    HttpResponse<String> first = Unirest.get("http://127.0.0.1:9081/data_for_train/express_2000").asString();
+    String etag = first.getHeaders().getFirst("etag");
+    assertThat(etag, is(notNullValue()));
+
+    HttpResponse<String> second = Unirest.get("http://127.0.0.1:9081/data_for_train/express_2000").header("If-None-Match", etag).asString();
+    assertThat(second.getStatus(), is(304));
+  }
+
   @Test
   public void theTrainServiceReturnsAFailureIfTheTrainIdIsNotRecognised() throws Exception {
     HttpResponse<JsonNode> trainDataResponse = Unirest.get("http://127.0.0.1:9081/data_for_train/UNKNOWN").asJson();
@@ -72,6 +88,80 @@ public class TrainDataService_v1_IntegrationTest {
     expectSeatToBeReserved(reservationResponse, "2B", is(bookingRef));
   }
 
+  @Test
+  public void seatsCanBeReservedWithAJsonRequestBody() throws Exception {
+    Unirest.get("http://127.0.0.1:9081/reset/local_1000").asJson();
+    final String bookingRef = nextBookingRef();
+    String reservation = "{\"train_id\": \"local_1000\", \"seats\": [\"6B\"], \"booking_reference\": \"" + bookingRef + "\"}";
+    HttpResponse<JsonNode> reservationResponse = Unirest.post("http://127.0.0.1:9081/reserve").header("Content-Type", "application/json").body(reservation).asJson();
+
+    assertThat(reservationResponse.getStatus(), is(200));
+    expectSeatToBeReserved(reservationResponse, "6B", is(bookingRef));
+  }
+
+  @Test
+  public void aReservationPlannedAgainstAnOutOfDateTrainIsTurnedDownWithWhatHasChanged() throws Exception {
+    String etag = Unirest.get("http://127.0.0.1:9081/reset/local_1000").asJson().getHeaders().getFirst("etag");
+    String otherBookingRef = nextBookingRef();
+    requestReservation(otherBookingRef, "local_1000", "8B");
+
+    String reservation = "{\"train_id\": \"local_1000\", \"seats\": [\"5B\"], \"booking_reference\": \"" + nextBookingRef() + "\"}";
+    HttpResponse<JsonNode> outOfDate = Unirest.post("http://127.0.0.1:9081/reserve").header("Content-Type", "application/json").header("If-Match", etag).body(reservation).asJson();
+
+    expectingAnError(outOfDate, 412, containsString("local_1000 has changed"));
+    JSONArray changes = outOfDate.getBody().getObject().getJSONArray("changes");
+    assertThat(changes.length(), is(1));
+    assertThat(changes.getJSONObject(0).getString("booking_reference"), is(otherBookingRef));
+
+    HttpResponse<JsonNode> upToDate = Unirest.post("http://127.0.0.1:9081/reserve").header("Content-Type", "application/json").header("If-Match", outOfDate.getHeaders().getFirst("etag")).body(reservation).asJson();
+    assertThat(upToDate.getStatus(), is(200));
+  }
+
+  @Test
+  public void heldSeatsCannotBeReservedByAnyoneElseUntilTheHoldIsConfirmed() throws Exception {
+    Unirest.get("http://127.0.0.1:9081/reset/local_1000").asJson();
+    HttpResponse<JsonNode> held = Unirest.post("http://127.0.0.1:9081/hold").header("Content-Type", "application/json")
+      .body("{\"train_id\": \"local_1000\", \"seats\": [\"4B\"]}").asJson();
+    assertThat(held.getStatus(), is(200));
+    String holdId = held.getBody().getObject().getString("hold_id");
+
+    expectingAnError(requestReservation(nextBookingRef(), "local_1000", "4B"), 409, containsString("is being held"));
+    JSONObject occupancy = Unirest.get("http://127.0.0.1:9081/occupancy/local_1000").asJson().getBody().getObject();
+    assertThat(occupancy.getInt("booked"), is(0));
+    assertThat(occupancy.getInt("held"), is(1));
+    JSONObject availability = Unirest.get("http://127.0.0.1:9081/availability/local_1000").asJson().getBody().getObject();
+    assertThat(availability.getInt("free_seats"), is(occupancy.getInt("seats") - 1));
+
+    String confirmation = "{\"hold_id\": \"" + holdId + "\", \"booking_reference\": \"" + nextBookingRef() + "\"}";
+    assertThat(Unirest.post("http://127.0.0.1:9081/confirm").header("Content-Type", "application/json").body(confirmation).asJson().getStatus(), is(200));
+    HttpResponse<JsonNode> released = Unirest.post("http://127.0.0.1:9081/release").header("Content-Type", "application/json")
+      .body("{\"hold_id\": \"" + holdId + "\"}").asJson();
+    expectingAnError(released, 404, containsString("was not found"));
+  }
+
+  @Test
+  public void seatsCanBeReservedOverTheBinaryProtocol() throws Exception {
+    Unirest.get("http://127.0.0.1:9081/reset/local_1000").asJson();
+    try (Socket socket = new Socket("127.0.0.1", 9083)) {
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+
+      sendBinaryReservation(out, 1, "local_1000", nextBookingRef(), "7B");
+      sendBinaryReservation(out, 2, "local_1000", nextBookingRef(), "7B");
+
+      in.readInt();
+      assertThat(in.readInt(), is(1));
+      assertThat((int) in.readShort(), is(200));
+      in.readLong();
+      assertThat(readBinaryString(in), is(""));
+      in.readInt();
+      assertThat(in.readInt(), is(2));
+      assertThat((int) in.readShort(), is(409));
+      in.readLong();
+      assertThat(readBinaryString(in), startsWith("7B on local_1000 is already booked"));
+    }
+  }
+
   @Test
   public void attemptingADuplicateReservationWithADifferentBookingReferenceIsAnError() throws Exception {
     requestReservation(nextBookingRef(), "express_2000", "1A", "2B");
@@ -85,6 +175,78 @@ public class TrainDataService_v1_IntegrationTest {
     expectingAnError(reservationResponse, 404, is("seat not found 1D"));
   }
 
+  @Test
+  public void aBatchMakesAllOfATrainsReservationsOrNoneOfThem() throws Exception {
+    Unirest.get("http://127.0.0.1:9081/reset/express_2000").asJson();
+    Unirest.get("http://127.0.0.1:9081/reset/local_1000").asJson();
+    String batch = "[" +
+      "{\"train_id\": \"express_2000\", \"seats\": [\"5A\", \"6A\"], \"booking_reference\": \"" + nextBookingRef() + "\"}," +
+      "{\"train_id\": \"local_1000\", \"seats\": [\"2B\"], \"booking_reference\": \"" + nextBookingRef() + "\"}," +
+      "{\"train_id\": \"express_2000\", \"seats\": [\"7A\", \"6A\"], \"booking_reference\": \"" + nextBookingRef() + "\"}," +
+      "{\"train_id\": \"UNKNOWN\", \"seats\": [\"1A\"], \"booking_reference\": \"" + nextBookingRef() + "\"}," +
+      "{\"train_id\": \"UNKNOWN\", \"booking_reference\": \"" + nextBookingRef() + "\"}" +
+      "]";
+
+    HttpResponse<JsonNode> batchResponse = Unirest.post("http://127.0.0.1:9081/reserve_batch").body(batch).asJson();
+
+    assertThat(batchResponse.getStatus(), is(200));
+    JSONArray results = batchResponse.getBody().getObject().getJSONArray("results");
+    assertThat(results.getJSONObject(0).getInt("status"), is(409));
+    assertThat(results.getJSONObject(0).getString("error"), startsWith("Nothing was reserved"));
+    assertThat(results.getJSONObject(1).getInt("status"), is(200));
+    assertThat(results.getJSONObject(2).getInt("status"), is(409));
+    assertThat(results.getJSONObject(3).getInt("status"), is(404));
+    assertThat(results.getJSONObject(4).getInt("status"), is(400));
+    assertThat(requestReservation(nextBookingRef(), "express_2000", "5A").getStatus(), is(200));
+  }
+
+  @Test
+  public void freeSeatsCanBeFoundWithoutFetchingTheWholeTrain() throws Exception {
+    Unirest.get("http://127.0.0.1:9081/reset/local_1000").asJson();
+    requestReservation(nextBookingRef(), "local_1000", "1A", "2A", "3A");
+
+    HttpResponse<JsonNode> availabilityResponse = Unirest.get("http://127.0.0.1:9081/availability/local_1000?count=2&same_coach=true").asJson();
+
+    assertThat(availabilityResponse.getStatus(), is(200));
+    JSONObject availability = availabilityResponse.getBody().getObject();
+    assertThat(availability.getInt("free_seats"), is(13));
+    assertThat(availability.getJSONArray("seats").getString(0), is("1B"));
+    assertThat(availability.getJSONArray("seats").getString(1), is("2B"));
+  }
+
+  @Test
+  public void occupancyIsReportedForEachCoachOfATrain() throws Exception {
+    Unirest.get("http://127.0.0.1:9081/reset/local_1000").asJson();
+    requestReservation(nextBookingRef(), "local_1000", "1A", "2A", "1B", "2B");
+
+    HttpResponse<JsonNode> occupancyResponse = Unirest.get("http://127.0.0.1:9081/occupancy/local_1000").asJson();
+
+    assertThat(occupancyResponse.getStatus(), is(200));
+    JSONObject occupancy = occupancyResponse.getBody().getObject();
+    assertThat(occupancy.getInt("booked"), is(4));
+    assertThat(occupancy.getDouble("occupancy"), is(25.0));
+    assertThat(occupancy.getJSONArray("coaches").getJSONObject(0).getDouble("occupancy"), is(50.0));
+  }
+
+  @Test
+  public void trainsWithRoomForAPartyCanBeFoundAcrossTheFleet() throws Exception {
+    Unirest.get("http://127.0.0.1:9081/reset/local_1000").asJson();
+    requestReservation(nextBookingRef(), "local_1000", "1B", "2B", "3B", "4B", "5B");
+
+    HttpResponse<JsonNode> searchResponse = Unirest.get("http://127.0.0.1:9081/search?count=4&same_coach=true").asJson();
+
+    assertThat(searchResponse.getStatus(), is(200));
+    JSONArray trains = searchResponse.getBody().getObject().getJSONArray("trains");
+    for (int i = 0; i < trains.length(); i++) {
+      if (trains.getJSONObject(i).getString("train_id").equals("local_1000")) {
+        assertThat(trains.getJSONObject(i).getInt("free_seats"), is(11));
+        assertThat(trains.getJSONObject(i).getInt("most_free_in_a_coach"), is(4));
+        return;
+      }
+    }
+    throw new AssertionError("local_1000 has room for 4 in coach A but wasn't found");
+  }
+
   @Test
   public void allReservationsCanBeCleared() throws Exception {
     // Given a reservation
@@ -97,6 +259,45 @@ public class TrainDataService_v1_IntegrationTest {
     expectNoReservations(trainDataResponse);
   }
 
+  @Test
+  public void requestsAreCountedInTheMetrics() throws Exception {
+    Unirest.get("http://127.0.0.1:9081/data_for_train/express_2000").asString();
+
+    HttpResponse<String> metricsResponse = Unirest.get("http://127.0.0.1:9081/metrics").asString();
+
+    assertThat(metricsResponse.getStatus(), is(200));
+    assertThat(metricsResponse.getBody(), containsString("trains_data_responses_total{route=\"/data_for_train\",status=\"200\"}"));
+    assertThat(metricsResponse.getBody(), containsString("trains_data_request_duration_seconds_count{route=\"/data_for_train\"}"));
+  }
+
+  private static void sendBinaryReservation(DataOutputStream out, int requestId, String trainId, String bookingRef, String... seats) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream request = new DataOutputStream(bytes);
+    request.writeInt(requestId);
+    writeBinaryString(request, trainId);
+    writeBinaryString(request, bookingRef);
+    request.writeShort(seats.length);
+    for (String seat : seats) {
+      writeBinaryString(request, seat);
+    }
+    out.writeInt(bytes.size());
+    bytes.writeTo(out);
+    out.flush();
+  }
+
+  /** A 2 byte length and plain UTF-8, as the protocol has it, rather than writeUTF's modified UTF-8 */
+  private static void writeBinaryString(DataOutputStream out, String string) throws IOException {
+    byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+    out.writeShort(utf8.length);
+    out.write(utf8);
+  }
+
+  private static String readBinaryString(DataInputStream in) throws IOException {
+    byte[] utf8 = new byte[in.readUnsignedShort()];
+    in.readFully(utf8);
+    return new String(utf8, StandardCharsets.UTF_8);
+  }
+
   private static void expectNoReservations(HttpResponse<JsonNode> response) {
     JsonNode resultJson = response.getBody();
     JSONArray coachesData = resultJson.getObject().getJSONArray("coaches");
@@ -0,0 +1,180 @@
+import com.mashape.unirest.http.HttpResponse;
+import com.mashape.unirest.http.Unirest;
+import com.mashape.unirest.http.exceptions.UnirestException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps booking references in hand so making a reservation doesn't have to wait for the booking
+ * reference service first.
+ *
+ * When fewer than the low watermark are left the pool is topped back up to the high watermark in the
+ * background, asking for the whole shortfall in one request (GET /booking_reference?count=N). A service
+ * that doesn't understand count sends back a single reference, in which case the pool asks for them
+ * one at a time instead.
+ *
+ * take() only goes to the service itself if the pool has run dry, which shows up in misses().
+ *
+ * e.g.
+ * BookingReferencePool pool = new BookingReferencePool("http://127.0.0.1:9082/booking_reference", 10, 50);
+ * pool.start();
+ * String bookingReference = pool.take();
+ */
+public class BookingReferencePool {
+    private static final int MAX_COUNT = 1000;
+
+    private final String url;
+    private final int lowWatermark;
+    private final int highWatermark;
+
+    private final ConcurrentLinkedQueue<String> references = new ConcurrentLinkedQueue<String>();
+    private final AtomicInteger available = new AtomicInteger();
+    private final AtomicBoolean refilling = new AtomicBoolean();
+    private final AtomicBoolean batchesSupported = new AtomicBoolean(true);
+    private final ExecutorService refiller = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "booking-reference-pool");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // Metrics
+    private final AtomicLong taken = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refills = new AtomicLong();
+    private final AtomicLong failedRefills = new AtomicLong();
+    private final AtomicLong fetched = new AtomicLong();
+
+    public BookingReferencePool(String url, int lowWatermark, int highWatermark) {
+        if (lowWatermark < 0 || highWatermark <= lowWatermark) {
+            throw new IllegalArgumentException("The high watermark must be above the low watermark, which can't be negative");
+        }
+        this.url = url;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    /** Starts filling the pool in the background */
+    public void start() {
+        refillInBackground();
+    }
+
+    /**
+     * A booking reference nobody else has been given. Comes straight from the pool unless it's empty,
+     * in which case it's fetched from the service while the pool refills.
+     */
+    public String take() throws UnirestException {
+        String reference = references.poll();
+        if (reference != null && available.decrementAndGet() >= lowWatermark) {
+            taken.incrementAndGet();
+            return reference;
+        }
+
+        refillInBackground();
+        if (reference == null) {
+            misses.incrementAndGet();
+            reference = fetch(1).get(0);
+        }
+        taken.incrementAndGet();
+        return reference;
+    }
+
+    public void close() {
+        refiller.shutdownNow();
+    }
+
+    public int available() {
+        return available.get();
+    }
+
+    public long taken() {
+        return taken.get();
+    }
+
+    /** How many times take() found the pool empty and had to wait for the service */
+    public long misses() {
+        return misses.get();
+    }
+
+    public long refills() {
+        return refills.get();
+    }
+
+    public long failedRefills() {
+        return failedRefills.get();
+    }
+
+    /** References fetched from the service in the background, whether or not they've been taken yet */
+    public long fetched() {
+        return fetched.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BookingReferencePool[available=%d, taken=%d, misses=%d, refills=%d, failedRefills=%d, fetched=%d]",
+                available(), taken(), misses(), refills(), failedRefills(), fetched());
+    }
+
+    private void refillInBackground() {
+        if (!refilling.compareAndSet(false, true)) return;
+        try {
+            refiller.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refill();
+                    } finally {
+                        refilling.set(false);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            // The pool has been closed
+            refilling.set(false);
+        }
+    }
+
+    private void refill() {
+        refills.incrementAndGet();
+        try {
+            int wanted;
+            while ((wanted = highWatermark - available.get()) > 0) {
+                List<String> batch = fetch(batchesSupported.get() ? Math.min(wanted, MAX_COUNT) : 1);
+                if (batch.size() < Math.min(wanted, MAX_COUNT)) batchesSupported.set(false);
+                fetched.addAndGet(batch.size());
+                references.addAll(batch);
+                available.addAndGet(batch.size());
+            }
+        } catch (UnirestException e) {
+            failedRefills.incrementAndGet();
+        }
+    }
+
+    private List<String> fetch(int count) throws UnirestException {
+        HttpResponse<String> response = count == 1
+                ? Unirest.get(url).asString()
+                : Unirest.get(url).queryString("count", count).asString();
+        if (response.getStatus() != 200) {
+            throw new UnirestException("The booking reference service returned " + response.getStatus() + ": " + response.getBody());
+        }
+
+        List<String> fetched = new ArrayList<String>();
+        for (String reference : response.getBody().split("\n")) {
+            if (!reference.trim().isEmpty()) fetched.add(reference.trim());
+        }
+        if (fetched.isEmpty()) {
+            throw new UnirestException("The booking reference service didn't return a reference");
+        }
+        return fetched;
+    }
+}
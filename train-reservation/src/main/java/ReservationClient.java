@@ -0,0 +1,368 @@
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Makes reservations without tying up a thread for each one, so a few threads can have many bookings in
+ * flight at once.
+ *
+ * A reservation fetches the train data and a booking reference at the same time, lets the caller choose
+ * seats from the train data, then reserves them. Requests share a pool of keep-alive connections to each
+ * service, limited per host, and are sent and answered on a small number of I/O threads. The futures
+ * complete on those threads, so anything chained onto them shouldn't block.
+ *
+ * Train data is cached, see {@link TrainDataCache}, so a booking usually chooses its seats without
+ * downloading the train. If the cached train was out of date the reservation gets a 409, which drops it,
+ * so trying again chooses from the train as it is now. The cached train is shared, so don't change it.
+ *
+ * e.g.
+ * ReservationClient client = new ReservationClient("http://127.0.0.1:9081", "http://127.0.0.1:9082/booking_reference");
+ * client.start();
+ * client.reserve("express_2000", train -> chooseSeats(train, 2))
+ *       .thenAccept(booking -> System.out.println(booking));
+ */
+public class ReservationClient implements Closeable {
+    private final String trainDataUrl;
+    private final String bookingReferenceUrl;
+    private final CloseableHttpAsyncClient http;
+    private final TrainDataCache cache;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public ReservationClient(String trainDataUrl, String bookingReferenceUrl) throws IOException {
+        this(trainDataUrl, bookingReferenceUrl, new Options());
+    }
+
+    public ReservationClient(String trainDataUrl, String bookingReferenceUrl, Options options) throws IOException {
+        this.trainDataUrl = trainDataUrl;
+        this.bookingReferenceUrl = bookingReferenceUrl;
+        this.cache = new TrainDataCache(options.cachedTrains, options.revalidateAfterMillis, options.expireAfterMillis);
+
+        IOReactorConfig ioConfig = IOReactorConfig.custom()
+                .setIoThreadCount(options.ioThreads)
+                .setConnectTimeout(options.connectTimeoutMillis)
+                .setSoTimeout(options.requestTimeoutMillis)
+                .build();
+        PoolingNHttpClientConnectionManager connections = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioConfig));
+        connections.setMaxTotal(options.maxConnections);
+        connections.setDefaultMaxPerRoute(options.maxConnectionsPerHost);
+        for (Map.Entry<String, Integer> limit : options.hostLimits.entrySet()) {
+            connections.setMaxPerRoute(new HttpRoute(hostOf(limit.getKey())), limit.getValue());
+        }
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(options.connectTimeoutMillis)
+                .setSocketTimeout(options.requestTimeoutMillis)
+                .setConnectionRequestTimeout(options.connectionWaitMillis)
+                .build();
+        this.http = HttpAsyncClients.custom()
+                .setConnectionManager(connections)
+                .setDefaultRequestConfig(requestConfig)
+                .build();
+    }
+
+    public void start() {
+        http.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        http.close();
+    }
+
+    /** How many requests have been sent and not yet answered */
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Reserves the seats chosen from the train's data, with a new booking reference. The train data and
+     * the booking reference are fetched at the same time. The future fails with a {@link ServiceException}
+     * if a service turns the request down, including when no seats are chosen.
+     */
+    public CompletableFuture<Booking> reserve(final String trainId, final Function<JSONObject, List<String>> chooseSeats) {
+        final CompletableFuture<String> bookingReference = bookingReference();
+        return trainData(trainId).thenCompose(train -> {
+            List<String> seats = chooseSeats.apply(train);
+            if (seats == null || seats.isEmpty()) {
+                return failed(new ServiceException(0, "No seats could be chosen on " + trainId));
+            }
+            return bookingReference.thenCompose(reference -> reserve(trainId, seats, reference));
+        });
+    }
+
+    /**
+     * Reserves the seats with a booking reference you already have. The train in the response replaces the
+     * cached one, and a 409 drops the cached one as it can't be up to date.
+     */
+    public CompletableFuture<Booking> reserve(final String trainId, final List<String> seats, final String bookingReference) {
+        HttpPost request = new HttpPost(trainDataUrl + "/reserve");
+        JSONObject reservation = new JSONObject()
+                .put("train_id", trainId)
+                .put("seats", new JSONArray(seats))
+                .put("booking_reference", bookingReference);
+        request.setEntity(new StringEntity(reservation.toString(), ContentType.APPLICATION_JSON));
+        return exchange(request).thenCompose(response -> {
+            if (response.status == 200) {
+                cache.put(trainId, response.etag, new JSONObject(response.body));
+                return CompletableFuture.completedFuture(new Booking(trainId, bookingReference, seats));
+            }
+            if (response.status == 409) cache.invalidate(trainId);
+            return failed(response.failure());
+        });
+    }
+
+    /**
+     * The train's seats and who has booked them, as GET /data_for_train returns them. Comes from the cache
+     * if it's there and fresh, or has been checked with the service and hasn't changed.
+     */
+    public CompletableFuture<JSONObject> trainData(final String trainId) {
+        final TrainDataCache.Cached cached = cache.get(trainId);
+        if (cached != null && cached.fresh()) return CompletableFuture.completedFuture(cached.train);
+
+        HttpGet request = new HttpGet(trainDataUrl + "/data_for_train/" + trainId);
+        if (cached != null) request.setHeader("If-None-Match", cached.etag);
+        return exchange(request).thenCompose(response -> {
+            if (response.status == 304 && cached != null) {
+                cache.revalidated(trainId, cached);
+                return CompletableFuture.completedFuture(cached.train);
+            }
+            if (response.status != 200) {
+                if (response.status == 404) cache.invalidate(trainId);
+                return failed(response.failure());
+            }
+            JSONObject train = new JSONObject(response.body);
+            cache.put(trainId, response.etag, train);
+            return CompletableFuture.completedFuture(train);
+        });
+    }
+
+    /** A new booking reference */
+    public CompletableFuture<String> bookingReference() {
+        return exchange(new HttpGet(bookingReferenceUrl)).thenCompose(response -> response.status == 200
+                ? CompletableFuture.completedFuture(response.body.trim())
+                : ReservationClient.<String>failed(response.failure()));
+    }
+
+    /** How many trains are cached */
+    public int cachedTrains() {
+        return cache.size();
+    }
+
+    /** The response, whatever its status; only fails if there wasn't one */
+    private CompletableFuture<Response> exchange(HttpUriRequest request) {
+        final CompletableFuture<Response> answered = new CompletableFuture<>();
+        inFlight.incrementAndGet();
+        http.execute(request, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                inFlight.decrementAndGet();
+                try {
+                    String body = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity(), "UTF-8");
+                    Header etag = response.getFirstHeader("ETag");
+                    answered.complete(new Response(response.getStatusLine().getStatusCode(), body, etag == null ? null : etag.getValue()));
+                } catch (IOException e) {
+                    answered.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                inFlight.decrementAndGet();
+                answered.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                inFlight.decrementAndGet();
+                answered.completeExceptionally(new CancellationException());
+            }
+        });
+        return answered;
+    }
+
+    private static final class Response {
+        private final int status;
+        private final String body;
+        private final String etag;
+
+        private Response(int status, String body, String etag) {
+            this.status = status;
+            this.body = body;
+            this.etag = etag;
+        }
+
+        /** The services put what went wrong in an "error" field, or sometimes just send text */
+        private ServiceException failure() {
+            try {
+                return new ServiceException(status, new JSONObject(body).getString("error"));
+            } catch (JSONException e) {
+                return new ServiceException(status, body);
+            }
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    private static HttpHost hostOf(String url) {
+        URI uri = URI.create(url);
+        int port = uri.getPort() != -1 ? uri.getPort() : "https".equals(uri.getScheme()) ? 443 : 80;
+        return new HttpHost(uri.getHost(), port, uri.getScheme());
+    }
+
+    /** A reservation that's been made */
+    public static final class Booking {
+        private final String trainId;
+        private final String bookingReference;
+        private final List<String> seats;
+
+        Booking(String trainId, String bookingReference, List<String> seats) {
+            this.trainId = trainId;
+            this.bookingReference = bookingReference;
+            this.seats = Collections.unmodifiableList(new ArrayList<>(seats));
+        }
+
+        public String trainId() {
+            return trainId;
+        }
+
+        public String bookingReference() {
+            return bookingReference;
+        }
+
+        public List<String> seats() {
+            return seats;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Booking[trainId=%s, bookingReference=%s, seats=%s]", trainId, bookingReference, seats);
+        }
+    }
+
+    /** A service turned the request down. The status is the HTTP status code it answered with */
+    public static final class ServiceException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        ServiceException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        public int status() {
+            return status;
+        }
+    }
+
+    /**
+     * How many connections and threads the client uses and how long it waits. The defaults suit a client
+     * on the same machine or network as the services.
+     */
+    public static final class Options {
+        private int ioThreads = 2;
+        private int maxConnections = 200;
+        private int maxConnectionsPerHost = 50;
+        private final Map<String, Integer> hostLimits = new HashMap<>();
+        private int connectTimeoutMillis = 1000;
+        private int requestTimeoutMillis = 5000;
+        private int connectionWaitMillis = 5000;
+        private int cachedTrains = 100;
+        private long revalidateAfterMillis = 1000;
+        private long expireAfterMillis = 300000;
+
+        /** Threads sending requests and reading responses */
+        public Options ioThreads(int threads) {
+            this.ioThreads = threads;
+            return this;
+        }
+
+        /** Connections kept open across all hosts */
+        public Options maxConnections(int connections) {
+            this.maxConnections = connections;
+            return this;
+        }
+
+        /** Connections kept open to any one host */
+        public Options maxConnectionsPerHost(int connections) {
+            this.maxConnectionsPerHost = connections;
+            return this;
+        }
+
+        /** Connections kept open to the host of this url, instead of maxConnectionsPerHost */
+        public Options maxConnectionsTo(String url, int connections) {
+            hostLimits.put(url, connections);
+            return this;
+        }
+
+        public Options connectTimeoutMillis(int millis) {
+            this.connectTimeoutMillis = millis;
+            return this;
+        }
+
+        /** How long to wait for a response once the request has been sent */
+        public Options requestTimeoutMillis(int millis) {
+            this.requestTimeoutMillis = millis;
+            return this;
+        }
+
+        /** How long a request waits for a connection when the host's are all in use */
+        public Options connectionWaitMillis(int millis) {
+            this.connectionWaitMillis = millis;
+            return this;
+        }
+
+        /** How many trains' data to keep, 0 to fetch it every time */
+        public Options cachedTrains(int trains) {
+            this.cachedTrains = trains;
+            return this;
+        }
+
+        /** How long cached train data is used before checking it's still current */
+        public Options revalidateAfterMillis(long millis) {
+            this.revalidateAfterMillis = millis;
+            return this;
+        }
+
+        /** How long cached train data is kept without being fetched or checked */
+        public Options expireAfterMillis(long millis) {
+            this.expireAfterMillis = millis;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The train data a {@link ReservationClient} has fetched, so a booking doesn't download the whole train
+ * again when nothing has changed.
+ *
+ * A train fetched less than revalidateAfter ago is used as it is. After that it's checked with a
+ * conditional request (If-None-Match with the ETag it came with), which costs a round trip but not the
+ * download if it's still current. A train not fetched or checked for expireAfter is dropped, and when
+ * there are more than maxTrains the least recently used is dropped.
+ */
+class TrainDataCache {
+    private final long revalidateAfterNanos;
+    private final long expireAfterNanos;
+    private final Map<String, Cached> trains;
+
+    TrainDataCache(final int maxTrains, long revalidateAfterMillis, long expireAfterMillis) {
+        this.revalidateAfterNanos = TimeUnit.MILLISECONDS.toNanos(revalidateAfterMillis);
+        this.expireAfterNanos = TimeUnit.MILLISECONDS.toNanos(expireAfterMillis);
+        this.trains = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                return size() > maxTrains;
+            }
+        };
+    }
+
+    /** The train as last fetched, or null if it isn't cached or has expired */
+    synchronized Cached get(String trainId) {
+        Cached entry = trains.get(trainId);
+        if (entry != null && System.nanoTime() - entry.checkedAt > expireAfterNanos) {
+            trains.remove(trainId);
+            return null;
+        }
+        return entry;
+    }
+
+    synchronized void put(String trainId, String etag, JSONObject train) {
+        if (etag == null) {
+            trains.remove(trainId);
+        } else {
+            trains.put(trainId, new Cached(etag, train, System.nanoTime()));
+        }
+    }
+
+    /** The service said the train hasn't changed since it was fetched */
+    synchronized void revalidated(String trainId, Cached entry) {
+        if (trains.get(trainId) == entry) {
+            trains.put(trainId, new Cached(entry.etag, entry.train, System.nanoTime()));
+        }
+    }
+
+    synchronized void invalidate(String trainId) {
+        trains.remove(trainId);
+    }
+
+    synchronized int size() {
+        return trains.size();
+    }
+
+    final class Cached {
+        final String etag;
+        final JSONObject train;
+        private final long checkedAt;
+
+        private Cached(String etag, JSONObject train, long checkedAt) {
+            this.etag = etag;
+            this.train = train;
+            this.checkedAt = checkedAt;
+        }
+
+        /** True if it can be used without checking with the service first */
+        boolean fresh() {
+            return System.nanoTime() - checkedAt <= revalidateAfterNanos;
+        }
+    }
+}
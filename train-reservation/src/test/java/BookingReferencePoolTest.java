@@ -0,0 +1,84 @@
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+
+public class BookingReferencePoolTest {
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(9082);
+
+    private BookingReferencePool pool;
+
+    @After
+    public void closePool() {
+        if (pool != null) pool.close();
+    }
+
+    @Test
+    public void fillsUpWithOneRequestForABatchOfReferences() throws Exception {
+        stubFor(get(urlEqualTo("/booking_reference?count=3"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "text/plain")
+                        .withBody("1000000\n1000001\n1000002")));
+
+        pool = new BookingReferencePool("http://127.0.0.1:9082/booking_reference", 1, 3);
+        pool.start();
+        waitForAvailable(3);
+
+        assertThat(pool.take(), is("1000000"));
+        assertThat(pool.take(), is("1000001"));
+        assertThat(pool.misses(), is(0L));
+        verify(1, getRequestedFor(urlEqualTo("/booking_reference?count=3")));
+    }
+
+    @Test
+    public void asksForOneAtATimeIfTheServiceOnlyEverReturnsOne() throws Exception {
+        stubFor(get(urlMatching("/booking_reference.*"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "text/plain")
+                        .withBody("1000000")));
+
+        pool = new BookingReferencePool("http://127.0.0.1:9082/booking_reference", 1, 3);
+        pool.start();
+        waitForAvailable(3);
+
+        verify(getRequestedFor(urlEqualTo("/booking_reference")));
+    }
+
+    @Test
+    public void goesToTheServiceItselfWhenThePoolIsEmpty() throws Exception {
+        stubFor(get(urlMatching("/booking_reference.*"))
+                .willReturn(aResponse()
+                        .withStatus(500)));
+
+        pool = new BookingReferencePool("http://127.0.0.1:9082/booking_reference", 1, 3);
+        stubFor(get(urlEqualTo("/booking_reference"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "text/plain")
+                        .withBody("1000000")));
+
+        assertThat(pool.take(), is("1000000"));
+        assertThat(pool.misses(), is(1L));
+    }
+
+    private void waitForAvailable(int references) throws InterruptedException {
+        for (int i = 0; i < 100 && pool.available() < references; i++) {
+            Thread.sleep(50);
+        }
+        assertThat(pool.available(), is(references));
+    }
+}
@@ -0,0 +1,176 @@
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+
+public class ReservationClientTest {
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(9082);
+
+    private ReservationClient client;
+
+    @Before
+    public void startClient() throws Exception {
+        client = new ReservationClient("http://127.0.0.1:9082", "http://127.0.0.1:9082/booking_reference",
+                new ReservationClient.Options().ioThreads(1).maxConnectionsPerHost(4));
+        client.start();
+    }
+
+    @After
+    public void closeClient() throws Exception {
+        client.close();
+    }
+
+    @Test
+    public void reservesTheChosenSeatsWithANewBookingReference() throws Exception {
+        stubTrainAndBookingReference();
+        stubFor(post(urlEqualTo("/reserve"))
+                .withRequestBody(containing("\"booking_reference\":\"75bcd15\""))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"seats\": {}}")));
+
+        ReservationClient.Booking booking = client.reserve("express_2000", train -> Arrays.asList("1A", "2A"))
+                .get(5, TimeUnit.SECONDS);
+
+        assertThat(booking.trainId(), is("express_2000"));
+        assertThat(booking.bookingReference(), is("75bcd15"));
+        assertThat(booking.seats(), contains("1A", "2A"));
+        verify(postRequestedFor(urlEqualTo("/reserve"))
+                .withHeader("Content-Type", containing("application/json"))
+                .withRequestBody(containing("\"train_id\":\"express_2000\"")));
+    }
+
+    @Test
+    public void failsWithTheStatusAndErrorTheServiceSent() throws Exception {
+        stubTrainAndBookingReference();
+        stubFor(post(urlEqualTo("/reserve"))
+                .willReturn(aResponse()
+                        .withStatus(409)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"error\": \"1A on express_2000 is already booked\"}")));
+
+        try {
+            client.reserve("express_2000", train -> Arrays.asList("1A")).get(5, TimeUnit.SECONDS);
+            fail("The reservation should have been turned down");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(ReservationClient.ServiceException.class));
+            assertThat(((ReservationClient.ServiceException) e.getCause()).status(), is(409));
+            assertThat(e.getCause().getMessage(), is("1A on express_2000 is already booked"));
+        }
+    }
+
+    @Test
+    public void keepsManyReservationsInFlightOnOneThread() throws Exception {
+        stubTrainAndBookingReference();
+        stubFor(post(urlEqualTo("/reserve"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withFixedDelay(100)
+                        .withBody("{}")));
+
+        List<CompletableFuture<ReservationClient.Booking>> bookings = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            bookings.add(client.reserve("express_2000", train -> Arrays.asList("1A")));
+        }
+        CompletableFuture.allOf(bookings.toArray(new CompletableFuture[bookings.size()])).get(5, TimeUnit.SECONDS);
+
+        assertThat(client.inFlight(), is(0));
+        verify(40, postRequestedFor(urlEqualTo("/reserve")));
+    }
+
+    @Test
+    public void usesTheCachedTrainUntilItNeedsChecking() throws Exception {
+        stubTrainAndBookingReference();
+
+        JSONObject first = client.trainData("express_2000").get(5, TimeUnit.SECONDS);
+        JSONObject second = client.trainData("express_2000").get(5, TimeUnit.SECONDS);
+
+        assertThat(second, sameInstance(first));
+        verify(1, getRequestedFor(urlEqualTo("/data_for_train/express_2000")));
+    }
+
+    @Test
+    public void checksTheCachedTrainWithItsETag() throws Exception {
+        stubTrainAndBookingReference();
+        stubFor(get(urlEqualTo("/data_for_train/express_2000"))
+                .withHeader("If-None-Match", equalTo("\"kx2f-1\""))
+                .willReturn(aResponse()
+                        .withStatus(304)
+                        .withHeader("ETag", "\"kx2f-1\"")));
+        ReservationClient checkingClient = new ReservationClient("http://127.0.0.1:9082", "http://127.0.0.1:9082/booking_reference",
+                new ReservationClient.Options().revalidateAfterMillis(0));
+        checkingClient.start();
+        try {
+            JSONObject first = checkingClient.trainData("express_2000").get(5, TimeUnit.SECONDS);
+            JSONObject second = checkingClient.trainData("express_2000").get(5, TimeUnit.SECONDS);
+
+            assertThat(second, sameInstance(first));
+            verify(1, getRequestedFor(urlEqualTo("/data_for_train/express_2000"))
+                    .withHeader("If-None-Match", equalTo("\"kx2f-1\"")));
+        } finally {
+            checkingClient.close();
+        }
+    }
+
+    @Test
+    public void aConflictDropsTheCachedTrain() throws Exception {
+        stubTrainAndBookingReference();
+        stubFor(post(urlEqualTo("/reserve"))
+                .willReturn(aResponse()
+                        .withStatus(409)
+                        .withBody("{\"error\": \"1A on express_2000 is already booked\"}")));
+
+        try {
+            client.reserve("express_2000", train -> Arrays.asList("1A")).get(5, TimeUnit.SECONDS);
+            fail("The reservation should have been turned down");
+        } catch (ExecutionException e) {
+            assertThat(client.cachedTrains(), is(0));
+        }
+        client.trainData("express_2000").get(5, TimeUnit.SECONDS);
+
+        verify(2, getRequestedFor(urlEqualTo("/data_for_train/express_2000")));
+    }
+
+    private void stubTrainAndBookingReference() {
+        stubFor(get(urlEqualTo("/data_for_train/express_2000"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withHeader("ETag", "\"kx2f-1\"")
+                        .withBody("{\"seats\": {\"1A\": {\"booking_reference\": \"\", \"seat_number\": \"1\", \"coach\": \"A\"}}}")));
+        stubFor(get(urlEqualTo("/booking_reference"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "text/plain")
+                        .withBody("75bcd15")));
+    }
+}
@@ -0,0 +1,122 @@
+package trains.data;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.net.NetSocket;
+import org.vertx.java.core.parsetools.RecordParser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static trains.data.TrainDataService.BAD_REQUEST;
+
+/**
+ * Makes reservations sent over a plain TCP connection in a compact binary form, for callers making a
+ * lot of them, without the cost of HTTP, form decoding or JSON. Reservations are checked and made
+ * exactly as they are for POST /reserve.
+ *
+ * Every message is a 4 byte length followed by that many bytes. Numbers are big-endian, and a string is
+ * a 2 byte length followed by that many bytes of UTF-8.
+ *
+ * Request:  [int request id][string train id][string booking reference][short seat count][string seat id]...
+ * Response: [int request id][short status][long train version][string error]
+ *
+ * The status is the one POST /reserve would have answered with, and the error is empty if the seats
+ * were reserved. The version is the train's after the reservation, or -1 if there is no such train.
+ * Any number of requests can be sent without waiting for their responses, which may come back in a
+ * different order; the request id says which is which. A message that can't be read as a request gets
+ * a 400, or the connection closed if it's too long or short to be one.
+ */
+public final class BinaryReservations implements Handler<NetSocket> {
+
+  private static final int MIN_REQUEST = 4 + 2 + 2 + 2;
+  private static final int MAX_REQUEST = 64 * 1024;
+
+  private final TrainDataHandlers handlers;
+  private final Metrics.Route route;
+
+  public BinaryReservations(TrainDataHandlers handlers, Metrics.Route route) {
+    this.handlers = handlers;
+    this.route = route;
+  }
+
+  @Override
+  public void handle(final NetSocket socket) {
+    final RecordParser parser = RecordParser.newFixed(4, null);
+    parser.setOutput(new Handler<Buffer>() {
+      private boolean readingLength = true;
+
+      public void handle(Buffer record) {
+        if (readingLength) {
+          int length = record.getInt(0);
+          if (length < MIN_REQUEST || length > MAX_REQUEST) {
+            socket.close();
+            return;
+          }
+          parser.fixedSizeMode(length);
+        } else {
+          reserve(socket, record);
+          parser.fixedSizeMode(4);
+        }
+        readingLength = !readingLength;
+      }
+    });
+    socket.dataHandler(parser);
+  }
+
+  private void reserve(final NetSocket socket, Buffer request) {
+    final long start = System.nanoTime();
+    final int requestId = request.getInt(0);
+    String trainId;
+    String bookingRef;
+    List<String> seats;
+    try {
+      int[] position = {4};
+      trainId = readString(request, position);
+      bookingRef = readString(request, position);
+      int seatCount = request.getShort(position[0]) & 0xFFFF;
+      position[0] += 2;
+      seats = new ArrayList<>(seatCount);
+      for (int i = 0; i < seatCount; i++) {
+        seats.add(readString(request, position));
+      }
+      if (position[0] != request.length()) throw new IndexOutOfBoundsException();
+    } catch (IndexOutOfBoundsException e) {
+      respond(socket, start, requestId, BAD_REQUEST, -1, "The request isn't laid out as [train id][booking reference][seat count][seat id]...");
+      return;
+    }
+    if (trainId.isEmpty() || bookingRef.isEmpty() || seats.isEmpty()) {
+      respond(socket, start, requestId, BAD_REQUEST, -1, String.format("One or more request attributes missing: [train_id=%s, seats=%s, booking_reference=%s]", trainId, seats, bookingRef));
+      return;
+    }
+
+    handlers.reserve(trainId, seats, bookingRef, new Handler<TrainDataHandlers.Result>() {
+      public void handle(TrainDataHandlers.Result result) {
+        respond(socket, start, requestId, result.status(), result.version(), result.error());
+      }
+    });
+  }
+
+  private static String readString(Buffer in, int[] position) {
+    int length = in.getShort(position[0]) & 0xFFFF;
+    int from = position[0] + 2;
+    if (from + length > in.length()) throw new IndexOutOfBoundsException();
+    position[0] = from + length;
+    return new String(in.getBytes(from, from + length), StandardCharsets.UTF_8);
+  }
+
+  private void respond(NetSocket socket, long start, int requestId, int status, long version, String error) {
+    byte[] errorBytes = error == null ? new byte[0] : error.getBytes(StandardCharsets.UTF_8);
+    int length = 4 + 2 + 8 + 2 + errorBytes.length;
+    Buffer response = new Buffer(4 + length)
+        .appendInt(length)
+        .appendInt(requestId)
+        .appendShort((short) status)
+        .appendLong(version)
+        .appendShort((short) errorBytes.length)
+        .appendBytes(errorBytes);
+    route.record(System.nanoTime() - start, status, response.length());
+    socket.write(response);
+  }
+}
@@ -0,0 +1,164 @@
+package trains.data;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary copy of the train data that loads far faster than parsing the JSON.
+ *
+ * Every distinct string (train ids, coaches, seat numbers and booking references) is stored once in a
+ * table at the start of the file and seats refer to it by index, so loading creates one object per
+ * distinct string and one array per coach rather than objects for every seat. The file is memory mapped
+ * and read in place.
+ *
+ * The file holds the inventory rather than either JSON layout, so the same file serves both versions
+ * of the service. Convert a trains.json in either layout with
+ * java trains.data.BinaryTrainData src/main/resources/trains.json src/main/resources/trains.bin
+ *
+ * Layout, big endian:
+ * "TRNS" version
+ * string count, (UTF-8 length, UTF-8 bytes)...
+ * train count, (train id, coach count, (coach, seat count, seat numbers..., booking references...)...)...
+ */
+public final class BinaryTrainData {
+
+  private static final int MAGIC = 0x54524E53;
+  private static final int VERSION = 1;
+
+  private BinaryTrainData() {
+  }
+
+  public static InventoryStore read(File file) throws IOException {
+    ByteBuffer in;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      in = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+    }
+    if (in.remaining() < 8 || in.getInt() != MAGIC) throw new IOException(file + " isn't binary train data");
+    if (in.getInt() != VERSION) throw new IOException(file + " is from an unsupported version of the service");
+
+    String[] strings = new String[in.getInt()];
+    byte[] bytes = new byte[64];
+    for (int i = 0; i < strings.length; i++) {
+      int length = in.getInt();
+      if (length > bytes.length) bytes = new byte[Math.max(length, bytes.length * 2)];
+      in.get(bytes, 0, length);
+      strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    InventoryStore store = new InventoryStore();
+    int[] referenceIds = new int[strings.length];
+    Arrays.fill(referenceIds, -1);
+
+    int trainCount = in.getInt();
+    for (int t = 0; t < trainCount; t++) {
+      String trainId = strings[in.getInt()];
+      String[] coaches = new String[in.getInt()];
+      String[][] seatNumbers = new String[coaches.length][];
+      int[][] bookings = new int[coaches.length][];
+      for (int c = 0; c < coaches.length; c++) {
+        coaches[c] = strings[in.getInt()];
+        int seatCount = in.getInt();
+        seatNumbers[c] = new String[seatCount];
+        bookings[c] = new int[seatCount];
+        for (int s = 0; s < seatCount; s++) {
+          seatNumbers[c][s] = strings[in.getInt()];
+        }
+        for (int s = 0; s < seatCount; s++) {
+          int reference = in.getInt();
+          if (referenceIds[reference] < 0) referenceIds[reference] = store.references().intern(strings[reference]);
+          bookings[c][s] = referenceIds[reference];
+        }
+      }
+      store.add(trainId, coaches, seatNumbers, bookings);
+    }
+    return store;
+  }
+
+  public static void write(InventoryStore store, File file) throws IOException {
+    Map<String, Integer> indexes = new HashMap<>();
+    List<String> strings = new ArrayList<>();
+    List<Integer> trains = new ArrayList<>();
+    int trainCount = 0;
+    for (TrainInventory train : store.trains()) {
+      trainCount++;
+      synchronized (train) {
+        trains.add(index(train.trainId(), indexes, strings));
+        trains.add(train.coachCount());
+        for (int c = 0; c < train.coachCount(); c++) {
+          trains.add(index(train.coach(c), indexes, strings));
+          trains.add(train.seatCount(c));
+          for (int s = 0; s < train.seatCount(c); s++) {
+            trains.add(index(train.seatNumber(TrainInventory.seat(c, s)), indexes, strings));
+          }
+          for (int s = 0; s < train.seatCount(c); s++) {
+            trains.add(index(train.bookingReference(TrainInventory.seat(c, s)), indexes, strings));
+          }
+        }
+      }
+    }
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(strings.size());
+      for (String string : strings) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+      out.writeInt(trainCount);
+      for (int value : trains) {
+        out.writeInt(value);
+      }
+    }
+  }
+
+  private static int index(String string, Map<String, Integer> indexes, List<String> strings) {
+    Integer index = indexes.get(string);
+    if (index == null) {
+      index = strings.size();
+      indexes.put(string, index);
+      strings.add(string);
+    }
+    return index;
+  }
+
+  /**
+   * Converts a trains.json to binary train data. The JSON may be in either version's layout;
+   * it's told apart by whether the first train lists "coaches" or "seats".
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: java trains.data.BinaryTrainData <trains.json> <trains.bin>");
+      System.exit(1);
+    }
+
+    TrainDataFormat format = TrainDataFormat.SEATS;
+    try (JsonReader json = new JsonReader(new FileReader(args[0]))) {
+      json.beginObject();
+      if (json.hasNext()) {
+        json.nextName();
+        json.beginObject();
+        if (json.hasNext() && json.nextName().equals("coaches")) format = TrainDataFormat.COACHES;
+      }
+    }
+
+    write(InventoryStore.open(new File(args[0]), format), new File(args[1]));
+    System.out.println("Wrote " + args[1] + " from " + args[0] + " in the " + format.name().toLowerCase() + " layout");
+  }
+}
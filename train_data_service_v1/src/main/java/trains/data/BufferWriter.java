@@ -0,0 +1,77 @@
+package trains.data;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.Writer;
+
+/**
+ * Encodes characters as UTF-8 straight into a buffer, so JSON can be streamed into a response
+ * without first being built up as a String.
+ */
+final class BufferWriter extends Writer {
+
+  private final ByteBuf out;
+  private char highSurrogate;
+
+  BufferWriter(ByteBuf out) {
+    this.out = out;
+  }
+
+  @Override
+  public void write(int c) {
+    encode((char) c);
+  }
+
+  @Override
+  public void write(char[] chars, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      encode(chars[i]);
+    }
+  }
+
+  @Override
+  public void write(String str, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      encode(str.charAt(i));
+    }
+  }
+
+  @Override
+  public void flush() {
+  }
+
+  @Override
+  public void close() {
+  }
+
+  private void encode(char c) {
+    if (highSurrogate != 0) {
+      char high = highSurrogate;
+      highSurrogate = 0;
+      if (Character.isLowSurrogate(c)) {
+        int codePoint = Character.toCodePoint(high, c);
+        out.writeByte(0xF0 | codePoint >> 18);
+        out.writeByte(0x80 | codePoint >> 12 & 0x3F);
+        out.writeByte(0x80 | codePoint >> 6 & 0x3F);
+        out.writeByte(0x80 | codePoint & 0x3F);
+        return;
+      }
+      out.writeByte('?');
+    }
+
+    if (c < 0x80) {
+      out.writeByte(c);
+    } else if (c < 0x800) {
+      out.writeByte(0xC0 | c >> 6);
+      out.writeByte(0x80 | c & 0x3F);
+    } else if (Character.isHighSurrogate(c)) {
+      highSurrogate = c;
+    } else if (Character.isLowSurrogate(c)) {
+      out.writeByte('?');
+    } else {
+      out.writeByte(0xE0 | c >> 12);
+      out.writeByte(0x80 | c >> 6 & 0x3F);
+      out.writeByte(0x80 | c & 0x3F);
+    }
+  }
+}
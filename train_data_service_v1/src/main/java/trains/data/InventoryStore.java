@@ -0,0 +1,265 @@
+package trains.data;
+
+import com.google.gson.JsonParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Every train's seat inventory, keyed by train id. Booking references are interned once for the whole fleet.
+ *
+ * Trains read from JSON are loaded lazily: opening the store only indexes where each train is in the file,
+ * and a train's seats are read the first time it's asked for. So a fleet of any size opens in one quick
+ * pass over the file, and only the trains that are actually used take up memory.
+ *
+ * Each train's seat counts are kept aside from the train too, see {@link #countSeats}, so summaries of the
+ * whole fleet don't have to load it.
+ *
+ * The set of trains is fixed once loaded, so a store can be shared between verticle instances;
+ * each train looks after its own locking.
+ */
+public final class InventoryStore {
+
+  /** Brings a train's bookings up to date as it is loaded, before anyone else can see it */
+  interface Restorer {
+    void restore(TrainInventory train);
+
+    /** True if it changes the train's bookings when it's loaded, so the train data's counts are out of date */
+    boolean restores(String trainId);
+
+    /** The train's {@link SeatCounter} counts once it's restored, or null if they can't be told without loading it */
+    int[] seatCounts(String trainId);
+  }
+
+  /**
+   * Told a train's seats, how many are free, how many of those are held and the most available, free and
+   * not held, in any one coach, see {@link #countSeats}
+   */
+  interface SeatCounter {
+    void count(String trainId, int seats, int free, int held, int mostAvailableInACoach);
+  }
+
+  private final Map<String, Entry> trains = new LinkedHashMap<>();
+  private final BookingReferences references = new BookingReferences();
+  private final Listeners listeners = new Listeners();
+  private final TrainDataFormat format;
+  private volatile Restorer restorer;
+
+  /** For trains that are added already loaded */
+  InventoryStore() {
+    this(null);
+  }
+
+  private InventoryStore(TrainDataFormat format) {
+    this.format = format;
+  }
+
+  /**
+   * Opens a train data file of the form {"train_id": {train data}, ...}, indexing where each train is
+   * without reading any of their seats yet.
+   */
+  public static InventoryStore open(File json, TrainDataFormat format) throws IOException {
+    InventoryStore store = new InventoryStore(format);
+    for (Map.Entry<String, ByteBuffer> train : TrainDataIndex.of(json).entrySet()) {
+      store.trains.put(train.getKey(), store.new Entry(train.getKey(), train.getValue()));
+    }
+    return store;
+  }
+
+  BookingReferences references() {
+    return references;
+  }
+
+  /** Adds a train whose seats have already been laid out, see {@link BinaryTrainData} */
+  void add(String trainId, String[] coaches, String[][] seatNumbers, int[][] bookings) {
+    trains.put(trainId, new Entry(new TrainInventory(trainId, references, listeners, coaches, seatNumbers, bookings)));
+  }
+
+  /** Tells the listener about every later change to any train's bookings */
+  public void addListener(InventoryListener listener) {
+    listeners.listeners.add(listener);
+  }
+
+  /**
+   * Has the restorer bring every train up to date: the ones already loaded straight away, and the
+   * rest as they are loaded.
+   */
+  void restoreWith(Restorer restorer) {
+    this.restorer = restorer;
+    for (Entry entry : trains.values()) {
+      synchronized (entry) {
+        if (entry.train != null) restorer.restore(entry.train);
+      }
+    }
+  }
+
+  /**
+   * Tells the counter about every train's seats. A train that hasn't been loaded is counted from its train
+   * data, or from what the restorer knows about it, and only loaded if neither will do.
+   *
+   * A loaded train is counted with its monitor held, and one that isn't is kept from loading while it's
+   * counted. So a listener added before this is called hears about a train's changes after it is counted.
+   */
+  void countSeats(SeatCounter counter) {
+    for (Entry entry : trains.values()) {
+      entry.countSeats(counter);
+    }
+  }
+
+  /** Every train's id, without loading any of them */
+  Set<String> trainIds() {
+    return Collections.unmodifiableSet(trains.keySet());
+  }
+
+  /** The train if it has been loaded, or null if there is no such train or nobody has needed it yet */
+  TrainInventory loadedTrain(String trainId) {
+    Entry entry = trains.get(trainId);
+    return entry == null ? null : entry.train;
+  }
+
+  public boolean has(String trainId) {
+    return trains.containsKey(trainId);
+  }
+
+  public TrainInventory train(String trainId) {
+    Entry entry = trains.get(trainId);
+    return entry == null ? null : entry.train();
+  }
+
+  public Reservation reserve(String trainId, List<String> seatIds, String bookingReference) {
+    TrainInventory train = train(trainId);
+    if (train == null) {
+      return Reservation.trainNotFound(trainId, bookingReference);
+    }
+    return train.reserve(seatIds, bookingReference);
+  }
+
+  /** Every train, loading any that haven't been yet */
+  public Iterable<TrainInventory> trains() {
+    return new Iterable<TrainInventory>() {
+      @Override
+      public Iterator<TrainInventory> iterator() {
+        final Iterator<Entry> entries = trains.values().iterator();
+        return new Iterator<TrainInventory>() {
+          @Override
+          public boolean hasNext() {
+            return entries.hasNext();
+          }
+
+          @Override
+          public TrainInventory next() {
+            return entries.next().train();
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+
+  /** A train, or where to read it from if nobody has needed it yet */
+  private final class Entry {
+    private final String trainId;
+    private ByteBuffer json;
+    private int[] seatCounts;
+    private volatile TrainInventory train;
+
+    private Entry(String trainId, ByteBuffer json) {
+      this.trainId = trainId;
+      this.json = json;
+    }
+
+    private Entry(TrainInventory train) {
+      this.trainId = train.trainId();
+      this.train = train;
+    }
+
+    private TrainInventory train() {
+      TrainInventory loaded = train;
+      if (loaded != null) return loaded;
+      synchronized (this) {
+        if (train == null) {
+          TrainInventory built = read().build(listeners);
+          Restorer restorer = InventoryStore.this.restorer;
+          if (restorer != null) restorer.restore(built);
+          train = built;
+          json = null;
+          seatCounts = null;
+        }
+        return train;
+      }
+    }
+
+    private synchronized void countSeats(SeatCounter counter) {
+      int[] counts = null;
+      if (train == null) {
+        Restorer restorer = InventoryStore.this.restorer;
+        if (restorer != null && restorer.restores(trainId)) {
+          counts = restorer.seatCounts(trainId);
+        } else {
+          // Counted from the train data once, as it can't change until the train is loaded
+          if (seatCounts == null) seatCounts = read().seatCounts();
+          counts = seatCounts;
+        }
+      }
+      if (counts != null) {
+        // Only a loaded train can have seats held
+        counter.count(trainId, counts[0], counts[1], 0, counts[2]);
+        return;
+      }
+
+      TrainInventory loaded = train();
+      synchronized (loaded) {
+        counter.count(trainId, loaded.seatCount(), loaded.freeSeatCount(), loaded.heldSeatCount(), loaded.mostAvailableSeatsInACoach());
+      }
+    }
+
+    /** The train's seats as read from its train data, without building the train */
+    private TrainInventory.Builder read() {
+      byte[] bytes = new byte[json.remaining()];
+      json.duplicate().get(bytes);
+      TrainInventory.Builder builder = new TrainInventory.Builder(trainId, references);
+      format.read(new JsonParser().parse(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8)).getAsJsonObject(), builder);
+      return builder;
+    }
+  }
+
+  private static final class Listeners implements InventoryListener {
+    private final List<InventoryListener> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void reserved(TrainInventory train, int[] seats, String bookingReference) {
+      for (InventoryListener listener : listeners) {
+        listener.reserved(train, seats, bookingReference);
+      }
+    }
+
+    @Override
+    public void reset(TrainInventory train) {
+      for (InventoryListener listener : listeners) {
+        listener.reset(train);
+      }
+    }
+
+    @Override
+    public void holdsChanged(TrainInventory train) {
+      for (InventoryListener listener : listeners) {
+        listener.holdsChanged(train);
+      }
+    }
+  }
+}
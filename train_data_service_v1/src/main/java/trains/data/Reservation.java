@@ -0,0 +1,125 @@
+package trains.data;
+
+import static trains.data.TrainDataService.CONFLICT;
+import static trains.data.TrainDataService.NOT_FOUND;
+
+/**
+ * The result of trying to reserve a set of seats on a train, or to hold them for a while (see
+ * {@link SeatHolds}). A reservation either books every seat or none of them; when it fails,
+ * {@link #seat()} is the first requested seat that stopped it.
+ */
+public final class Reservation {
+
+  public static final int OK = 200;
+
+  public enum Outcome { RESERVED, HELD, TRAIN_NOT_FOUND, SEAT_NOT_FOUND, HOLD_NOT_FOUND, ALREADY_BOOKED, ALREADY_HELD, BATCH_FAILED }
+
+  private final Outcome outcome;
+  private final String trainId;
+  private final String seat;
+  private final String bookingReference;
+  private final String holdId;
+
+  private Reservation(Outcome outcome, String trainId, String seat, String bookingReference) {
+    this(outcome, trainId, seat, bookingReference, null);
+  }
+
+  private Reservation(Outcome outcome, String trainId, String seat, String bookingReference, String holdId) {
+    this.outcome = outcome;
+    this.trainId = trainId;
+    this.seat = seat;
+    this.bookingReference = bookingReference;
+    this.holdId = holdId;
+  }
+
+  static Reservation reserved(String trainId, String bookingReference) {
+    return new Reservation(Outcome.RESERVED, trainId, null, bookingReference);
+  }
+
+  static Reservation trainNotFound(String trainId, String bookingReference) {
+    return new Reservation(Outcome.TRAIN_NOT_FOUND, trainId, null, bookingReference);
+  }
+
+  static Reservation seatNotFound(String trainId, String seat, String bookingReference) {
+    return new Reservation(Outcome.SEAT_NOT_FOUND, trainId, seat, bookingReference);
+  }
+
+  static Reservation alreadyBooked(String trainId, String seat, String bookingReference) {
+    return new Reservation(Outcome.ALREADY_BOOKED, trainId, seat, bookingReference);
+  }
+
+  /** Not made because another reservation on the same train in a batch couldn't be, see {@link ReservationBatch} */
+  static Reservation batchFailed(String trainId, String bookingReference) {
+    return new Reservation(Outcome.BATCH_FAILED, trainId, null, bookingReference);
+  }
+
+  static Reservation held(String trainId, String holdId) {
+    return new Reservation(Outcome.HELD, trainId, null, null, holdId);
+  }
+
+  static Reservation alreadyHeld(String trainId, String seat, String bookingReference) {
+    return new Reservation(Outcome.ALREADY_HELD, trainId, seat, bookingReference);
+  }
+
+  static Reservation holdNotFound(String holdId) {
+    return new Reservation(Outcome.HOLD_NOT_FOUND, null, null, null, holdId);
+  }
+
+  public Outcome outcome() {
+    return outcome;
+  }
+
+  public String trainId() {
+    return trainId;
+  }
+
+  public String seat() {
+    return seat;
+  }
+
+  public String bookingReference() {
+    return bookingReference;
+  }
+
+  /** The hold the seats are held for, or that couldn't be found */
+  public String holdId() {
+    return holdId;
+  }
+
+  /** The HTTP status code that reports this outcome */
+  public int status() {
+    switch (outcome) {
+      case TRAIN_NOT_FOUND:
+      case SEAT_NOT_FOUND:
+      case HOLD_NOT_FOUND:
+        return NOT_FOUND;
+      case ALREADY_BOOKED:
+      case ALREADY_HELD:
+      case BATCH_FAILED:
+        return CONFLICT;
+      default:
+        return OK;
+    }
+  }
+
+  /** Why the reservation failed, or null if it didn't */
+  public String error() {
+    switch (outcome) {
+      case TRAIN_NOT_FOUND:
+        return String.format("Train with ID %s was not found", trainId);
+      case SEAT_NOT_FOUND:
+        return String.format("seat not found %s", seat);
+      case HOLD_NOT_FOUND:
+        return String.format("Hold %s was not found, it may have expired", holdId);
+      case ALREADY_BOOKED:
+        if (bookingReference == null) return String.format("%s on %s is already booked", seat, trainId);
+        return String.format("%s on %s is already booked with reference:  %s", seat, trainId, bookingReference);
+      case ALREADY_HELD:
+        return String.format("%s on %s is being held for another booking", seat, trainId);
+      case BATCH_FAILED:
+        return String.format("Nothing was reserved for %s on %s, as another reservation on %s in the batch couldn't be made", bookingReference, trainId, trainId);
+      default:
+        return null;
+    }
+  }
+}
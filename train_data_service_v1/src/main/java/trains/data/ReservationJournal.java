@@ -0,0 +1,654 @@
+package trains.data;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.logging.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Makes reservations survive restarts and redeploys by appending every change to a journal on disk.
+ *
+ * Changes are appended to an in-memory batch while the train's monitor is held, so the journal has each
+ * train's changes in the order they were made. A single writer thread writes out whatever has built up
+ * and syncs it to disk, so one fsync covers every change made while the previous one was in progress.
+ * Callers wait for their change to be on disk with {@link #whenDurable(Handler)} before answering.
+ *
+ * Every so often the writer starts a new journal file and writes a snapshot of every booked seat, then
+ * deletes the files the snapshot replaces. At start up the latest snapshot is indexed and only the changes
+ * after it are read, so start up time depends on how much has changed since the last snapshot rather
+ * than on how long the service has been running.
+ *
+ * None of that loads a train (see {@link InventoryStore}). Each train's seats in the snapshot and its
+ * changes after it are kept aside, the seats as a slice of the memory mapped snapshot, and only applied
+ * when the train is first loaded. A snapshot takes the trains that have been loaded from memory and copies
+ * the rest from the previous snapshot as they are, so it doesn't load them either. The only exception is
+ * a train that was changed after the last snapshot but hasn't been loaded since start up, which is loaded
+ * so its changes can be folded into the new snapshot. Each train's seat counts are snapshotted with its
+ * seats, so {@link InventoryStore#countSeats} can count a train that hasn't been loaded.
+ *
+ * Files in the journal directory:
+ * journal-<first sequence number>.log - records of [length][sequence, type, train, (reference, seats)][crc]
+ * snapshot-<last sequence number>.bin - every changed train's seat counts and booked seats as of that record,
+ *                                      with a trailing crc
+ */
+public final class ReservationJournal implements InventoryListener, InventoryStore.Restorer {
+
+  private static final byte RESERVED = 1;
+  private static final byte RESET = 2;
+  private static final int SNAPSHOT_FORMAT = 2;
+  private static final int SNAPSHOT_FORMAT_WITHOUT_COUNTS = 1;
+  private static final ByteBuffer NO_SEATS = ByteBuffer.wrap(new byte[] {0}).asReadOnlyBuffer();
+
+  private final File dir;
+  private final InventoryStore inventory;
+  private final Vertx vertx;
+  private final Logger logger;
+  private final long snapshotEvery;
+
+  // Guarded by this
+  private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+  private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+  private final DataOutputStream record = new DataOutputStream(recordBytes);
+  private final List<Waiter> waiters = new ArrayList<>();
+  private long appended;
+  private long durable;
+  private boolean failed;
+  private boolean closed;
+
+  // Guarded by itself: trains with bookings in the journal that haven't been applied yet
+  private final Map<String, Restore> restoring = new HashMap<>();
+
+  // Only used by the writer thread once it has started
+  private FileChannel segment;
+  private long lastSnapshot;
+
+  private final Thread writer = new Thread("reservation-journal") {
+    @Override
+    public void run() {
+      writeBatches();
+    }
+  };
+
+  private ReservationJournal(File dir, InventoryStore inventory, Vertx vertx, Logger logger, long snapshotEvery) {
+    this.dir = dir;
+    this.inventory = inventory;
+    this.vertx = vertx;
+    this.logger = logger;
+    this.snapshotEvery = snapshotEvery;
+  }
+
+  /**
+   * Brings the inventory up to date from the journal in a directory, then journals every later change.
+   */
+  public static ReservationJournal open(File dir, InventoryStore inventory, long snapshotEvery, Vertx vertx, Logger logger) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Couldn't create journal directory " + dir);
+    }
+
+    ReservationJournal journal = new ReservationJournal(dir, inventory, vertx, logger, snapshotEvery);
+    journal.replay();
+    inventory.restoreWith(journal);
+    inventory.addListener(journal);
+    journal.writer.setDaemon(true);
+    journal.writer.start();
+    return journal;
+  }
+
+  @Override
+  public void reserved(TrainInventory train, int[] seats, String bookingReference) {
+    String[] seatIds = new String[seats.length];
+    for (int i = 0; i < seats.length; i++) {
+      seatIds[i] = train.seatId(seats[i]);
+    }
+    append(RESERVED, train.trainId(), bookingReference, seatIds);
+  }
+
+  @Override
+  public void reset(TrainInventory train) {
+    append(RESET, train.trainId(), null, null);
+  }
+
+  /** Holds aren't journalled */
+  @Override
+  public void holdsChanged(TrainInventory train) {
+  }
+
+  /** Applies the train's seats in the snapshot, and its changes after it, as it is loaded */
+  @Override
+  public void restore(TrainInventory train) {
+    Restore restore;
+    synchronized (restoring) {
+      restore = restoring.get(train.trainId());
+      if (restore == null || restore.loaded) return;
+      restore.loaded = true;
+    }
+
+    synchronized (train) {
+      if (restore.seats != null) {
+        train.applyReset();
+        try {
+          DataInputStream in = new DataInputStream(new ByteBufferInput(restore.seats.duplicate()));
+          while (in.readBoolean()) {
+            train.apply(Collections.singletonList(in.readUTF()), in.readUTF());
+          }
+        } catch (IOException e) {
+          // The snapshot's checksum was checked when it was indexed
+          throw new IllegalStateException(e);
+        }
+      }
+      for (Change change : restore.changes) {
+        if (change.seatIds == null) {
+          train.applyReset();
+        } else {
+          train.apply(Arrays.asList(change.seatIds), change.bookingReference);
+        }
+      }
+    }
+    restore.seats = null;
+    restore.changes = null;
+  }
+
+  @Override
+  public boolean restores(String trainId) {
+    synchronized (restoring) {
+      return restoring.containsKey(trainId);
+    }
+  }
+
+  @Override
+  public int[] seatCounts(String trainId) {
+    synchronized (restoring) {
+      Restore restore = restoring.get(trainId);
+      return restore == null || restore.loaded || !restore.changes.isEmpty() ? null : restore.seatCounts;
+    }
+  }
+
+  /**
+   * Calls back on the caller's context once every change appended so far is on disk, or has failed to be.
+   */
+  public void whenDurable(Handler<AsyncResult<Void>> then) {
+    Waiter waiter = new Waiter(vertx.currentContext(), then);
+    synchronized (this) {
+      if (!failed && durable < appended) {
+        waiter.sequence = appended;
+        waiters.add(waiter);
+        return;
+      }
+      waiter.result = failed ? new DefaultFutureResult<Void>(new IOException("The reservation journal can't be written")) : new DefaultFutureResult<Void>((Void) null);
+    }
+    waiter.run();
+  }
+
+  /** Writes out anything still pending and stops the writer */
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private synchronized void append(byte type, String trainId, String bookingReference, String[] seatIds) {
+    if (closed) {
+      throw new IllegalStateException("The reservation journal is closed");
+    }
+    try {
+      recordBytes.reset();
+      record.writeLong(++appended);
+      record.writeByte(type);
+      record.writeUTF(trainId);
+      if (type == RESERVED) {
+        record.writeUTF(bookingReference);
+        record.writeInt(seatIds.length);
+        for (String seatId : seatIds) {
+          record.writeUTF(seatId);
+        }
+      }
+
+      CRC32 crc = new CRC32();
+      crc.update(recordBytes.toByteArray());
+      DataOutputStream out = new DataOutputStream(pending);
+      out.writeInt(recordBytes.size());
+      recordBytes.writeTo(out);
+      out.writeInt((int) crc.getValue());
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    notifyAll();
+  }
+
+  private void writeBatches() {
+    while (true) {
+      byte[] batch;
+      long sequence;
+      synchronized (this) {
+        while (pending.size() == 0 && !closed) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (pending.size() == 0) break;
+        batch = pending.toByteArray();
+        pending.reset();
+        sequence = appended;
+      }
+
+      boolean written = !failed && write(batch);
+      List<Waiter> done = new ArrayList<>();
+      synchronized (this) {
+        if (written) {
+          durable = sequence;
+        } else {
+          failed = true;
+        }
+        for (Waiter waiter : waiters) {
+          if (!written || waiter.sequence <= durable) {
+            waiter.result = written ? new DefaultFutureResult<Void>((Void) null) : new DefaultFutureResult<Void>(new IOException("The reservation journal can't be written"));
+            done.add(waiter);
+          }
+        }
+        waiters.removeAll(done);
+      }
+      for (Waiter waiter : done) {
+        waiter.context.runOnContext(waiter);
+      }
+
+      if (written && sequence - lastSnapshot >= snapshotEvery) {
+        try {
+          snapshot(sequence);
+        } catch (IOException e) {
+          logger.error("Couldn't write a snapshot of the reservation journal", e);
+        }
+      }
+    }
+    closeSegment();
+  }
+
+  private boolean write(byte[] batch) {
+    try {
+      ByteBuffer bytes = ByteBuffer.wrap(batch);
+      while (bytes.hasRemaining()) {
+        segment.write(bytes);
+      }
+      segment.force(false);
+      return true;
+    } catch (IOException e) {
+      logger.fatal("Couldn't write to the reservation journal, reservations will fail until the service is restarted", e);
+      return false;
+    }
+  }
+
+  /**
+   * Starts a new journal file for the changes after the sequence number, then snapshots every train.
+   * A train may already include some of the later changes, which is fine as replaying them again
+   * leaves it in the same state.
+   */
+  private void snapshot(long sequence) throws IOException {
+    closeSegment();
+    segment = openSegment(sequence + 1);
+
+    File partial = new File(dir, "snapshot.tmp");
+    FileOutputStream stream = new FileOutputStream(partial);
+    CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(stream), new CRC32());
+    Map<String, int[]> copied = new HashMap<>();
+    int[] seatCounts = null;
+    try (DataOutputStream out = new DataOutputStream(checked)) {
+      out.writeInt(SNAPSHOT_FORMAT);
+      out.writeLong(sequence);
+      byte[] bytes = new byte[256];
+      for (String trainId : inventory.trainIds()) {
+        ByteBuffer seats = null;
+        boolean load = false;
+        synchronized (restoring) {
+          Restore restore = restoring.get(trainId);
+          if (restore != null && !restore.loaded && restore.changes.isEmpty() && restore.seatCounts != null) {
+            seats = restore.seats.duplicate();
+            seatCounts = restore.seatCounts;
+          } else {
+            load = restore != null;
+          }
+        }
+
+        if (seats != null) {
+          out.writeBoolean(true);
+          out.writeUTF(trainId);
+          for (int count : seatCounts) {
+            out.writeInt(count);
+          }
+          copied.put(trainId, new int[] {out.size(), seats.remaining()});
+          while (seats.hasRemaining()) {
+            int length = Math.min(bytes.length, seats.remaining());
+            seats.get(bytes, 0, length);
+            out.write(bytes, 0, length);
+          }
+          continue;
+        }
+
+        TrainInventory train = load ? inventory.train(trainId) : inventory.loadedTrain(trainId);
+        if (train == null) continue;
+        synchronized (train) {
+          out.writeBoolean(true);
+          out.writeUTF(train.trainId());
+          out.writeInt(train.seatCount());
+          out.writeInt(train.freeSeatCount());
+          out.writeInt(train.mostFreeSeatsInACoach());
+          for (int c = 0; c < train.coachCount(); c++) {
+            for (int s = 0; s < train.seatCount(c); s++) {
+              int seat = TrainInventory.seat(c, s);
+              if (!train.isFree(seat)) {
+                out.writeBoolean(true);
+                out.writeUTF(train.seatId(seat));
+                out.writeUTF(train.bookingReference(seat));
+              }
+            }
+          }
+          out.writeBoolean(false);
+        }
+      }
+      out.writeBoolean(false);
+      out.flush();
+      out.writeInt((int) checked.getChecksum().getValue());
+      out.flush();
+      stream.getFD().sync();
+    }
+    File snapshot = snapshotFile(sequence);
+    Files.move(partial.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    lastSnapshot = sequence;
+
+    // Point the trains that were copied at the new snapshot, so the old one can go
+    ByteBuffer mapped = map(snapshot);
+    synchronized (restoring) {
+      for (Map.Entry<String, int[]> train : copied.entrySet()) {
+        Restore restore = restoring.get(train.getKey());
+        if (!restore.loaded) restore.seats = slice(mapped, train.getValue()[0], train.getValue()[1]);
+      }
+    }
+
+    for (File file : files("snapshot-", ".bin")) {
+      if (sequenceOf(file) < sequence) delete(file);
+    }
+    for (File file : files("journal-", ".log")) {
+      if (sequenceOf(file) <= sequence) delete(file);
+    }
+  }
+
+  private void replay() throws IOException {
+    long sequence = loadSnapshot();
+    lastSnapshot = sequence;
+    for (File file : files("journal-", ".log")) {
+      sequence = replay(file, sequence);
+    }
+    appended = durable = sequence;
+    segment = openSegment(sequence + 1);
+  }
+
+  /**
+   * Indexes the latest readable snapshot, keeping each train's seats in it aside until the train is
+   * loaded, and returns the sequence number it was taken at.
+   */
+  private long loadSnapshot() throws IOException {
+    List<File> snapshots = files("snapshot-", ".bin");
+    Collections.reverse(snapshots);
+    for (File snapshot : snapshots) {
+      try {
+        ByteBuffer mapped = map(snapshot);
+        if (mapped.limit() < 4) throw new IOException("Snapshot is too short");
+        CRC32 crc = new CRC32();
+        ByteBuffer checked = mapped.duplicate();
+        checked.limit(mapped.limit() - 4);
+        byte[] bytes = new byte[8192];
+        while (checked.hasRemaining()) {
+          int length = Math.min(bytes.length, checked.remaining());
+          checked.get(bytes, 0, length);
+          crc.update(bytes, 0, length);
+        }
+        if (mapped.getInt(mapped.limit() - 4) != (int) crc.getValue()) throw new IOException("Snapshot checksum doesn't match");
+
+        ByteBuffer position = mapped.duplicate();
+        DataInputStream in = new DataInputStream(new ByteBufferInput(position));
+        int format = in.readInt();
+        if (format != SNAPSHOT_FORMAT && format != SNAPSHOT_FORMAT_WITHOUT_COUNTS) throw new IOException("Unknown snapshot format");
+        long sequence = in.readLong();
+        while (in.readBoolean()) {
+          String trainId = in.readUTF();
+          int[] seatCounts = format == SNAPSHOT_FORMAT ? new int[] {in.readInt(), in.readInt(), in.readInt()} : null;
+          int start = position.position();
+          while (in.readBoolean()) {
+            in.readUTF();
+            in.readUTF();
+          }
+          if (inventory.has(trainId)) {
+            Restore restore = restoreFor(trainId);
+            restore.seats = slice(mapped, start, position.position() - start);
+            restore.seatCounts = seatCounts;
+          }
+        }
+        logger.info("Indexed reservations in " + snapshot);
+        return sequence;
+      } catch (IOException e) {
+        restoring.clear();
+        logger.error("Skipping unreadable snapshot " + snapshot, e);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Reads the changes in a journal file after the given sequence number, keeping each train's aside
+   * until it is loaded, and cutting off any torn write at the end
+   */
+  private long replay(File file, long sequence) throws IOException {
+    long goodLength = 0;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      while (true) {
+        byte[] payload;
+        try {
+          int length = in.readInt();
+          if (length <= 0 || length > file.length()) break;
+          payload = new byte[length];
+          in.readFully(payload);
+          CRC32 crc = new CRC32();
+          crc.update(payload);
+          if (in.readInt() != (int) crc.getValue()) break;
+          goodLength += 4 + length + 4;
+        } catch (EOFException e) {
+          break;
+        }
+
+        DataInputStream change = new DataInputStream(new ByteArrayInputStream(payload));
+        long recordSequence = change.readLong();
+        if (recordSequence <= sequence) continue;
+        sequence = recordSequence;
+
+        byte type = change.readByte();
+        String trainId = change.readUTF();
+        if (!inventory.has(trainId)) continue;
+        Restore restore = restoreFor(trainId);
+        if (type == RESERVED) {
+          String bookingReference = change.readUTF();
+          String[] seatIds = new String[change.readInt()];
+          for (int i = 0; i < seatIds.length; i++) {
+            seatIds[i] = change.readUTF();
+          }
+          restore.changes.add(new Change(seatIds, bookingReference));
+        } else if (type == RESET) {
+          restore.seats = NO_SEATS;
+          restore.seatCounts = null;
+          restore.changes.clear();
+        }
+      }
+    }
+
+    if (goodLength < file.length()) {
+      logger.warn("Discarding " + (file.length() - goodLength) + " unreadable bytes at the end of " + file);
+      try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+        truncated.setLength(goodLength);
+      }
+    }
+    return sequence;
+  }
+
+  private Restore restoreFor(String trainId) {
+    Restore restore = restoring.get(trainId);
+    if (restore == null) {
+      restore = new Restore();
+      restoring.put(trainId, restore);
+    }
+    return restore;
+  }
+
+  private static ByteBuffer map(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+    }
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int start, int length) {
+    ByteBuffer slice = buffer.duplicate();
+    slice.position(start).limit(start + length);
+    return slice.slice();
+  }
+
+  private FileChannel openSegment(long firstSequence) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(new File(dir, String.format("journal-%016d.log", firstSequence)), "rw");
+    file.seek(file.length());
+    return file.getChannel();
+  }
+
+  private void closeSegment() {
+    if (segment == null) return;
+    try {
+      segment.close();
+    } catch (IOException e) {
+      logger.error("Couldn't close the reservation journal", e);
+    }
+  }
+
+  private File snapshotFile(long sequence) {
+    return new File(dir, String.format("snapshot-%016d.bin", sequence));
+  }
+
+  /** Journal or snapshot files, in sequence number order */
+  private List<File> files(final String prefix, final String suffix) {
+    File[] files = dir.listFiles();
+    List<File> matching = new ArrayList<>();
+    if (files != null) {
+      for (File file : files) {
+        if (file.getName().startsWith(prefix) && file.getName().endsWith(suffix)) matching.add(file);
+      }
+    }
+    Collections.sort(matching);
+    return matching;
+  }
+
+  private static long sequenceOf(File file) {
+    String name = file.getName();
+    return Long.parseLong(name.substring(name.indexOf('-') + 1, name.lastIndexOf('.')));
+  }
+
+  private void delete(File file) {
+    if (!file.delete()) {
+      logger.warn("Couldn't delete " + file);
+    }
+  }
+
+  /**
+   * What has to be applied to a train when it's loaded: its seats in the snapshot, as the snapshot's
+   * [true, seat id, booking reference]... false, or null to start from the train data, then its changes.
+   * The seat counts it will have with just the snapshot's seats are kept too, if the snapshot had them.
+   */
+  private static final class Restore {
+    private ByteBuffer seats;
+    private int[] seatCounts;
+    private List<Change> changes = new ArrayList<>();
+    private boolean loaded;
+  }
+
+  /** A reservation read from the journal */
+  private static final class Change {
+    private final String[] seatIds;
+    private final String bookingReference;
+
+    private Change(String[] seatIds, String bookingReference) {
+      this.seatIds = seatIds;
+      this.bookingReference = bookingReference;
+    }
+  }
+
+  /** Reads a buffer from its position, leaving the position just after what has been read */
+  private static final class ByteBufferInput extends InputStream {
+    private final ByteBuffer buffer;
+
+    private ByteBufferInput(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (!buffer.hasRemaining()) return -1;
+      int read = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, read);
+      return read;
+    }
+  }
+
+  private static final class Waiter implements Handler<Void> {
+    private final Context context;
+    private final Handler<AsyncResult<Void>> then;
+    private long sequence;
+    private AsyncResult<Void> result;
+
+    private Waiter(Context context, Handler<AsyncResult<Void>> then) {
+      this.context = context;
+      this.then = then;
+    }
+
+    @Override
+    public void handle(Void event) {
+      run();
+    }
+
+    private void run() {
+      then.handle(result);
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package trains.data;
+
+/**
+ * Parses seat ids of the form {@code <seat number><coach>}, e.g. "12B", in place without creating substrings.
+ *
+ * Seat numbers are plain decimal numbers with no leading zeros. Coaches are one to six letters A-Z, encoded
+ * as a base-27 number so that they can be compared and hashed as ints.
+ */
+final class SeatIds {
+
+  static final int INVALID = -1;
+
+  private static final int MAX_NUMBER_DIGITS = 9;
+  private static final int MAX_COACH_LETTERS = 6;
+
+  private SeatIds() {
+  }
+
+  /** The length of the seat number at the start of a seat id, 0 if it doesn't start with a digit */
+  static int numberLength(CharSequence seatId) {
+    int i = 0;
+    while (i < seatId.length() && isDigit(seatId.charAt(i))) i++;
+    return i;
+  }
+
+  /** The seat number in chars [from, to) of a seat id, or INVALID */
+  static int number(CharSequence seatId, int from, int to) {
+    int length = to - from;
+    if (length < 1 || length > MAX_NUMBER_DIGITS) return INVALID;
+    if (length > 1 && seatId.charAt(from) == '0') return INVALID;
+
+    int number = 0;
+    for (int i = from; i < to; i++) {
+      char ch = seatId.charAt(i);
+      if (!isDigit(ch)) return INVALID;
+      number = number * 10 + (ch - '0');
+    }
+    return number;
+  }
+
+  /** The coach code for chars [from, to) of a seat id, or INVALID */
+  static int coachCode(CharSequence seatId, int from, int to) {
+    int length = to - from;
+    if (length < 1 || length > MAX_COACH_LETTERS) return INVALID;
+
+    int code = 0;
+    for (int i = from; i < to; i++) {
+      char ch = seatId.charAt(i);
+      if (ch < 'A' || ch > 'Z') return INVALID;
+      code = code * 27 + (ch - 'A' + 1);
+    }
+    return code;
+  }
+
+  static int number(CharSequence seatNumber) {
+    return number(seatNumber, 0, seatNumber.length());
+  }
+
+  static int coachCode(CharSequence coach) {
+    return coachCode(coach, 0, coach.length());
+  }
+
+  private static boolean isDigit(char ch) {
+    return ch >= '0' && ch <= '9';
+  }
+}
@@ -0,0 +1,88 @@
+package trains.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps seat ids such as "1A" to seat handles in constant time.
+ *
+ * Coaches are found through a small open-addressed table keyed by coach code, and seats through a per-coach
+ * array indexed by seat number, so a lookup parses the id in place and does two array reads. Seats whose
+ * coach or number can't be encoded that way (e.g. "01A") fall back to a map keyed by the full id.
+ *
+ * The index only describes a train's layout, which never changes; resetting reservations leaves it valid.
+ */
+final class SeatIndex {
+
+  private static final int EMPTY = 0;
+  private static final int MAX_DENSE_SEAT_NUMBER = 1 << 16;
+
+  private final int[] coachCodes;
+  private final int[] coachIndexes;
+  private final int mask;
+  private final int[][] seatsByNumber;
+  private final Map<String, Integer> irregularSeats = new HashMap<>();
+
+  SeatIndex(String[] coaches, String[][] seatNumbers) {
+    int slots = Integer.highestOneBit(Math.max(1, coaches.length) * 2 - 1) << 1;
+    coachCodes = new int[slots];
+    coachIndexes = new int[slots];
+    mask = slots - 1;
+    seatsByNumber = new int[coaches.length][];
+
+    for (int c = 0; c < coaches.length; c++) {
+      int code = SeatIds.coachCode(coaches[c]);
+      if (code != SeatIds.INVALID && coachSlot(code) < 0) {
+        int slot = -coachSlot(code) - 1;
+        coachCodes[slot] = code;
+        coachIndexes[slot] = c;
+      }
+      seatsByNumber[c] = new int[0];
+
+      for (int s = 0; s < seatNumbers[c].length; s++) {
+        int number = SeatIds.number(seatNumbers[c][s]);
+        if (code == SeatIds.INVALID || number == SeatIds.INVALID || number >= MAX_DENSE_SEAT_NUMBER || coachIndexes[coachSlot(code)] != c) {
+          irregularSeats.put(seatNumbers[c][s] + coaches[c], TrainInventory.seat(c, s));
+          continue;
+        }
+        if (number >= seatsByNumber[c].length) {
+          int oldLength = seatsByNumber[c].length;
+          seatsByNumber[c] = Arrays.copyOf(seatsByNumber[c], number + 1);
+          Arrays.fill(seatsByNumber[c], oldLength, number + 1, TrainInventory.NO_SEAT);
+        }
+        if (seatsByNumber[c][number] == TrainInventory.NO_SEAT) {
+          seatsByNumber[c][number] = TrainInventory.seat(c, s);
+        }
+      }
+    }
+  }
+
+  /** The handle of the seat with this id, or NO_SEAT */
+  int find(CharSequence seatId) {
+    int split = SeatIds.numberLength(seatId);
+    int number = SeatIds.number(seatId, 0, split);
+    int code = SeatIds.coachCode(seatId, split, seatId.length());
+    if (number != SeatIds.INVALID && code != SeatIds.INVALID) {
+      int slot = coachSlot(code);
+      if (slot >= 0) {
+        int[] seats = seatsByNumber[coachIndexes[slot]];
+        if (number < seats.length && seats[number] != TrainInventory.NO_SEAT) return seats[number];
+      }
+    }
+    if (irregularSeats.isEmpty()) return TrainInventory.NO_SEAT;
+
+    Integer seat = irregularSeats.get(seatId.toString());
+    return seat == null ? TrainInventory.NO_SEAT : seat;
+  }
+
+  /** The slot holding a coach code, or -(insertion slot + 1) if it isn't in the table */
+  private int coachSlot(int code) {
+    int slot = (code * 0x9E3779B9) >>> 16 & mask;
+    while (coachCodes[slot] != EMPTY) {
+      if (coachCodes[slot] == code) return slot;
+      slot = (slot + 1) & mask;
+    }
+    return -slot - 1;
+  }
+}
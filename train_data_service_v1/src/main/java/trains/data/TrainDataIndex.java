@@ -0,0 +1,141 @@
+package trains.data;
+
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Finds where each train's JSON is in a train data file of the form {"train_id": {train data}, ...}
+ * without parsing any of it.
+ *
+ * The file is memory mapped and scanned a byte at a time, only keeping track of nesting and whether it's
+ * inside a string, so indexing a fleet costs one pass over the file and a slice of the mapping per train.
+ * A train's own JSON is only parsed when it is first needed.
+ */
+final class TrainDataIndex {
+
+  private final ByteBuffer json;
+  private int position;
+
+  private TrainDataIndex(ByteBuffer json) {
+    this.json = json;
+  }
+
+  /** Each train's JSON, in the order the trains appear in the file */
+  static Map<String, ByteBuffer> of(File file) throws IOException {
+    ByteBuffer json;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      json = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+    }
+    return new TrainDataIndex(json).trains();
+  }
+
+  private Map<String, ByteBuffer> trains() {
+    Map<String, ByteBuffer> trains = new LinkedHashMap<>();
+    expect('{');
+    if (peek() == '}') return trains;
+    do {
+      String trainId = string();
+      expect(':');
+      skipWhitespace();
+      int start = position;
+      skipValue();
+      trains.put(trainId, slice(start, position));
+    } while (next() == ',');
+
+    position--;
+    expect('}');
+    return trains;
+  }
+
+  private String string() {
+    expect('"');
+    int start = position - 1;
+    skipString();
+    ByteBuffer raw = slice(start, position);
+    byte[] bytes = new byte[raw.remaining()];
+    raw.get(bytes);
+    boolean escaped = false;
+    for (byte b : bytes) {
+      escaped |= b == '\\';
+    }
+    String quoted = new String(bytes, StandardCharsets.UTF_8);
+    return escaped ? new JsonParser().parse(quoted).getAsString() : quoted.substring(1, quoted.length() - 1);
+  }
+
+  /** Skips to just past the closing quote of a string whose opening quote has been read */
+  private void skipString() {
+    while (true) {
+      byte b = byteAt(position++);
+      if (b == '\\') {
+        position++;
+      } else if (b == '"') {
+        return;
+      }
+    }
+  }
+
+  /** Skips an object, array or primitive, leaving the position on whatever follows it */
+  private void skipValue() {
+    int depth = 0;
+    while (true) {
+      byte b = byteAt(position);
+      if (depth == 0 && (b == ',' || b == '}' || b == ']' || isWhitespace(b))) return;
+      position++;
+      if (b == '"') {
+        skipString();
+      } else if (b == '{' || b == '[') {
+        depth++;
+      } else if ((b == '}' || b == ']') && --depth == 0) {
+        return;
+      }
+    }
+  }
+
+  private void expect(char c) {
+    if (next() != c) {
+      throw new JsonSyntaxException("Expected '" + c + "' at byte " + (position - 1) + " of the train data");
+    }
+  }
+
+  private byte next() {
+    skipWhitespace();
+    return byteAt(position++);
+  }
+
+  private byte peek() {
+    skipWhitespace();
+    return byteAt(position);
+  }
+
+  private void skipWhitespace() {
+    while (position < json.limit() && isWhitespace(json.get(position))) {
+      position++;
+    }
+  }
+
+  private byte byteAt(int index) {
+    if (index >= json.limit()) {
+      throw new JsonSyntaxException("The train data ends unexpectedly");
+    }
+    return json.get(index);
+  }
+
+  private ByteBuffer slice(int start, int end) {
+    ByteBuffer slice = json.duplicate();
+    slice.position(start).limit(end);
+    return slice.slice();
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+  }
+}
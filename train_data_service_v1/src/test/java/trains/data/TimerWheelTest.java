@@ -0,0 +1,81 @@
+package trains.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimerWheelTest {
+
+  private static final int SLOTS = 512;
+
+  private final List<String> expired = new ArrayList<>();
+
+  @Test
+  public void aTimeoutLongerThanTheWheelWaitsForItsOwnTurnOfTheWheel() throws InterruptedException {
+    TimerWheel wheel = new TimerWheel(1, SLOTS);
+    // Both land on the same slot, a turn of the wheel apart
+    wheel.schedule(new Named("short"), 100);
+    wheel.schedule(new Named("long"), 100 + SLOTS);
+
+    advanceFor(wheel, 300);
+    assertEquals("[short]", expired.toString());
+    assertEquals(1, wheel.pending());
+
+    advanceFor(wheel, SLOTS);
+    assertEquals("[short, long]", expired.toString());
+    assertEquals(0, wheel.pending());
+  }
+
+  @Test
+  public void timeoutsDueWhileTheWheelWasntAdvancedRunOnTheNextAdvance() throws InterruptedException {
+    TimerWheel wheel = new TimerWheel(1, SLOTS);
+    wheel.schedule(new Named("first"), 10);
+    wheel.schedule(new Named("second"), SLOTS + 10);
+
+    // Longer than a turn of the wheel goes by without it being advanced
+    Thread.sleep(SLOTS + 100);
+    wheel.advance();
+
+    assertEquals(2, expired.size());
+    assertEquals(0, wheel.pending());
+  }
+
+  @Test
+  public void aCancelledTimeoutDoesntRun() throws InterruptedException {
+    TimerWheel wheel = new TimerWheel(1, SLOTS);
+    Named cancelled = new Named("cancelled");
+    wheel.schedule(cancelled, 10 + SLOTS);
+    wheel.schedule(new Named("kept"), 10);
+
+    assertEquals(true, wheel.cancel(cancelled));
+    advanceFor(wheel, SLOTS + 100);
+
+    assertEquals("[kept]", expired.toString());
+    assertEquals(false, wheel.cancel(cancelled));
+  }
+
+  private static void advanceFor(TimerWheel wheel, long millis) throws InterruptedException {
+    long until = System.currentTimeMillis() + millis;
+    while (System.currentTimeMillis() < until) {
+      wheel.advance();
+      Thread.sleep(5);
+    }
+    wheel.advance();
+  }
+
+  private final class Named extends TimerWheel.Timeout {
+    private final String name;
+
+    private Named(String name) {
+      this.name = name;
+    }
+
+    @Override
+    protected void expired() {
+      expired.add(name);
+    }
+  }
+}
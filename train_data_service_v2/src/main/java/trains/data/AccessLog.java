@@ -0,0 +1,212 @@
+package trains.data;
+
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Logs requests without slowing down the event loop. Handling a request only copies a few fields into a
+ * slot of a fixed ring buffer; a background thread turns them into lines and writes them out, to
+ * "access_log_file" if it's configured, or through the container's logger otherwise.
+ *
+ * 2026-10-18T10:15:30.123Z INFO GET /data_for_train/express_2000 200 971 412us
+ * 2026-10-18T10:15:30.125Z WARN GET /data_for_train/UNKNOWN 404 45 38us "Train with ID UNKNOWN was not found"
+ *
+ * "access_log_level" is "info" to log requests (the default), "warn" to log only the ones that failed
+ * and "off" for neither. "access_log_sample_rate" is the fraction of successful requests logged, 1 by
+ * default; failed ones are always logged. If the writer falls so far behind that the buffer is full,
+ * requests go unlogged rather than held up, and are counted in the next line written.
+ *
+ * Shared by every instance of the service: any number of event loops can log at once.
+ */
+public final class AccessLog {
+
+  private static final int CAPACITY = 8192;
+  private static final long IDLE_NANOS = 1000000;
+
+  enum Level { INFO, WARN, OFF }
+
+  private final Level level;
+  private final double sampleRate;
+  private final Writer file;
+  private final Logger logger;
+
+  private final Slot[] slots = new Slot[CAPACITY];
+  // Slots up to claimed have been handed to requests, those below written have been written out
+  private final AtomicLong claimed = new AtomicLong();
+  private volatile long written;
+  private final AtomicLong dropped = new AtomicLong();
+
+  private final Thread writer;
+  private volatile boolean running = true;
+
+  AccessLog(Level level, double sampleRate, Writer file, Logger logger) {
+    this.level = level;
+    this.sampleRate = sampleRate;
+    this.file = file;
+    this.logger = logger;
+    for (int i = 0; i < CAPACITY; i++) {
+      slots[i] = new Slot();
+    }
+    writer = new Thread(new Runnable() {
+      public void run() {
+        writeUntilClosed();
+      }
+    }, "access-log-writer");
+    writer.setDaemon(true);
+  }
+
+  public static AccessLog open(JsonObject config, Logger logger) throws IOException {
+    Level level = Level.valueOf(config.getString("access_log_level", "info").toUpperCase());
+    double sampleRate = config.getNumber("access_log_sample_rate", 1).doubleValue();
+    String fileName = config.getString("access_log_file");
+    Writer file = fileName == null ? null : new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName, true), StandardCharsets.UTF_8));
+    AccessLog log = new AccessLog(level, sampleRate, file, logger);
+    log.start();
+    return log;
+  }
+
+  void start() {
+    if (level != Level.OFF) writer.start();
+  }
+
+  /**
+   * Notes a response that has just been sent, with why it failed if it did, or a null error if it didn't.
+   * Doesn't allocate, block or wait for anything
+   */
+  public void record(HttpServerRequest req, int status, long nanos, int bodyBytes, String error) {
+    record(req.method(), req.uri(), status, nanos, bodyBytes, error);
+  }
+
+  void record(String method, String uri, int status, long nanos, int bodyBytes, String error) {
+    boolean failed = status >= 400;
+    if (level == Level.OFF || (!failed && (level == Level.WARN || !sampled()))) return;
+
+    long sequence;
+    do {
+      sequence = claimed.get();
+      if (sequence - written >= CAPACITY) {
+        dropped.incrementAndGet();
+        return;
+      }
+    } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+    Slot slot = slots[(int) (sequence % CAPACITY)];
+    slot.timeMillis = System.currentTimeMillis();
+    slot.method = method;
+    slot.uri = uri;
+    slot.status = status;
+    slot.nanos = nanos;
+    slot.bodyBytes = bodyBytes;
+    slot.error = error;
+    slot.ready = sequence;
+  }
+
+  private boolean sampled() {
+    return sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+  }
+
+  /** Writes out what has been logged so far and stops the writer */
+  public void close() {
+    running = false;
+    LockSupport.unpark(writer);
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (file != null) {
+      try {
+        file.close();
+      } catch (IOException e) {
+        logger.error("Couldn't close the access log", e);
+      }
+    }
+  }
+
+  private void writeUntilClosed() {
+    SimpleDateFormat timestamps = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    timestamps.setTimeZone(TimeZone.getTimeZone("UTC"));
+    Date date = new Date();
+    StringBuilder line = new StringBuilder(256);
+
+    while (true) {
+      boolean stopping = !running;
+      Slot slot = slots[(int) (written % CAPACITY)];
+      if (slot.ready != written) {
+        if (stopping) break;
+        flush();
+        LockSupport.parkNanos(IDLE_NANOS);
+        continue;
+      }
+
+      line.setLength(0);
+      date.setTime(slot.timeMillis);
+      line.append(timestamps.format(date)).append(slot.status >= 400 ? " WARN " : " INFO ")
+          .append(slot.method).append(' ').append(slot.uri).append(' ')
+          .append(slot.status).append(' ').append(slot.bodyBytes).append(' ')
+          .append(slot.nanos / 1000).append("us");
+      if (slot.error != null) line.append(" \"").append(slot.error).append('"');
+      boolean failed = slot.status >= 400;
+      slot.method = null;
+      slot.uri = null;
+      slot.error = null;
+      written++;
+
+      long missed = dropped.getAndSet(0);
+      if (missed > 0) line.append(" (").append(missed).append(" requests not logged, the access log fell behind)");
+      write(line, failed);
+    }
+    flush();
+  }
+
+  private void write(StringBuilder line, boolean failed) {
+    if (file == null) {
+      if (failed) {
+        logger.warn(line);
+      } else {
+        logger.info(line);
+      }
+      return;
+    }
+    try {
+      file.append(line).append('\n');
+    } catch (IOException e) {
+      logger.error("Couldn't write to the access log", e);
+    }
+  }
+
+  private void flush() {
+    if (file == null) return;
+    try {
+      file.flush();
+    } catch (IOException e) {
+      logger.error("Couldn't write to the access log", e);
+    }
+  }
+
+  /** One request's worth of the ring buffer; ready holds the sequence number once the rest is filled in */
+  private static final class Slot {
+    private long timeMillis;
+    private String method;
+    private String uri;
+    private int status;
+    private long nanos;
+    private int bodyBytes;
+    private String error;
+    private volatile long ready = -1;
+  }
+}
@@ -0,0 +1,33 @@
+package trains.data;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Finds seats a client could reserve, so it doesn't have to fetch and search the whole train itself, e.g.
+ * {"train_id": "express_2000", "free_seats": 32, "seats": ["1A", "2A"]}
+ *
+ * "free_seats" leaves out seats that are held, as they can't be reserved. "seats" is empty when there
+ * aren't enough free seats, or not enough in any one coach when they have to be together. Nothing is
+ * held for the client; the seats are only a suggestion until reserved.
+ */
+final class Availability {
+
+  private Availability() {
+  }
+
+  static JsonObject of(TrainInventory train, int count, boolean sameCoach) {
+    JsonObject availability = new JsonObject();
+    JsonArray seats = new JsonArray();
+    synchronized (train) {
+      availability.addProperty("train_id", train.trainId());
+      availability.addProperty("free_seats", train.availableSeatCount());
+      for (int seat : train.findFreeSeats(count, sameCoach)) {
+        seats.add(new JsonPrimitive(train.seatId(seat)));
+      }
+    }
+    availability.add("seats", seats);
+    return availability;
+  }
+}
@@ -0,0 +1,53 @@
+package trains.data;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interns booking reference strings so a seat only has to hold a small int id.
+ * Id 0 is reserved for "not booked" and always maps to the empty string.
+ *
+ * Shared by every train, so safe to use from any thread: lookups don't lock and only
+ * allocating a new id does.
+ */
+public final class BookingReferences {
+
+  public static final int NONE = 0;
+
+  private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+  private volatile String[] references = {""};
+  private int size = 1;
+
+  /** The id for a reference, allocating a new one the first time the reference is seen */
+  public int intern(String reference) {
+    if (reference == null || reference.isEmpty()) return NONE;
+    Integer id = ids.get(reference);
+    return id != null ? id : allocate(reference);
+  }
+
+  /** The id for a reference without allocating one; -1 if the reference has never been booked */
+  public int idOf(String reference) {
+    if (reference == null || reference.isEmpty()) return NONE;
+    Integer id = ids.get(reference);
+    return id == null ? -1 : id;
+  }
+
+  public String reference(int id) {
+    return references[id];
+  }
+
+  private synchronized int allocate(String reference) {
+    Integer id = ids.get(reference);
+    if (id != null) return id;
+
+    String[] grown = references;
+    if (size == grown.length) {
+      grown = Arrays.copyOf(grown, size * 2);
+    }
+    grown[size] = reference;
+    references = grown;
+    ids.put(reference, size);
+    return size++;
+  }
+}
@@ -0,0 +1,127 @@
+package trains.data;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Which trains can still take a party of a given size, across the whole fleet.
+ *
+ * Trains are kept in two sorted sets, one ordered by how many seats are free on the whole train and one
+ * by the most seats free in any one of its coaches, where held seats don't count as free. A search starts at the party size and reads trains
+ * off in order, so it costs a log(trains) lookup plus the trains it returns, however big the fleet.
+ *
+ * The index follows every reservation, reset and hold as a listener on the trains. It's built the first time
+ * it's searched, from each train's seat counts, which doesn't load trains that haven't been used yet.
+ */
+public final class CapacityIndex implements InventoryListener {
+
+  private final InventoryStore inventory;
+  private final NavigableSet<Entry> byFreeSeats = new ConcurrentSkipListSet<>();
+  private final NavigableSet<Entry> byFreeSeatsInACoach = new ConcurrentSkipListSet<>();
+  private final ConcurrentMap<String, Entry[]> entries = new ConcurrentHashMap<>();
+  private volatile boolean built;
+
+  public CapacityIndex(InventoryStore inventory) {
+    this.inventory = inventory;
+  }
+
+  /**
+   * Up to limit trains with room for the party, those with the fewest free seats to spare first, e.g.
+   * {"trains": [{"train_id": "local_1000", "free_seats": 6, "most_free_in_a_coach": 3}]}
+   */
+  public JsonObject search(int count, boolean sameCoach, int limit) {
+    build();
+    JsonArray trains = new JsonArray();
+    Iterator<Entry> found = (sameCoach ? byFreeSeatsInACoach : byFreeSeats).tailSet(new Entry("", count), true).iterator();
+    while (trains.size() < limit && found.hasNext()) {
+      // The train may have been re-filed since it was found
+      Entry[] train = entries.get(found.next().trainId);
+      if (train[sameCoach ? 1 : 0].free < count) continue;
+      JsonObject result = new JsonObject();
+      result.addProperty("train_id", train[0].trainId);
+      result.addProperty("free_seats", train[0].free);
+      result.addProperty("most_free_in_a_coach", train[1].free);
+      trains.add(result);
+    }
+    JsonObject results = new JsonObject();
+    results.add("trains", trains);
+    return results;
+  }
+
+  @Override
+  public void reserved(TrainInventory train, int[] seats, String bookingReference) {
+    update(train);
+  }
+
+  @Override
+  public void reset(TrainInventory train) {
+    update(train);
+  }
+
+  @Override
+  public void holdsChanged(TrainInventory train) {
+    update(train);
+  }
+
+  private synchronized void build() {
+    if (built) return;
+    inventory.addListener(this);
+    inventory.countSeats(new InventoryStore.SeatCounter() {
+      public void count(String trainId, int seats, int free, int held, int mostAvailableInACoach) {
+        update(trainId, free - held, mostAvailableInACoach);
+      }
+    });
+    built = true;
+  }
+
+  private void update(TrainInventory train) {
+    update(train.trainId(), train.availableSeatCount(), train.mostAvailableSeatsInACoach());
+  }
+
+  /**
+   * Re-files a train under its current counts. Called with the train's monitor held, or while it's kept from
+   * loading, so a train's updates never race
+   */
+  private void update(String trainId, int free, int mostFreeInACoach) {
+    Entry[] updated = {new Entry(trainId, free), new Entry(trainId, mostFreeInACoach)};
+    Entry[] previous = entries.put(trainId, updated);
+    if (previous != null) {
+      byFreeSeats.remove(previous[0]);
+      byFreeSeatsInACoach.remove(previous[1]);
+    }
+    byFreeSeats.add(updated[0]);
+    byFreeSeatsInACoach.add(updated[1]);
+  }
+
+  private static final class Entry implements Comparable<Entry> {
+    private final String trainId;
+    private final int free;
+
+    private Entry(String trainId, int free) {
+      this.trainId = trainId;
+      this.free = free;
+    }
+
+    @Override
+    public int compareTo(Entry other) {
+      int byFree = Integer.compare(free, other.free);
+      return byFree != 0 ? byFree : trainId.compareTo(other.trainId);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Entry && compareTo((Entry) other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * free + trainId.hashCode();
+    }
+  }
+}
@@ -0,0 +1,198 @@
+package trains.data;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.HttpServerResponse;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Streams each change to a train's bookings to clients as server-sent events, so they can keep their
+ * copy of the train up to date without fetching it over and over.
+ *
+ * Every event has an id of the form "epoch-version", where the version is the train's version after the
+ * change. A client that reconnects sends the last id it saw (as Last-Event-ID, or ?since=) and is sent
+ * only what it missed. If that is no longer known, because it's too far back or from before the service
+ * restarted, the client is sent the whole train again instead, as it is when it first connects.
+ *
+ * event: train     data: the train, as /data_for_train returns it
+ * event: reserved  data: {"version": 18, "seats": ["1A", "2A"], "booking_reference": "75bcd15"}
+ * event: reset     data: {"version": 19}
+ *
+ * Changes are recorded as the train makes them and published on the event bus, so every instance of the
+ * service passes them on to the clients connected to it.
+ */
+public final class ChangeFeed implements InventoryListener {
+
+  private static final String ADDRESS = "trains.data.changes.";
+  private static final int BACKLOG = 256;
+  private static final long KEEP_ALIVE_MILLIS = 15000;
+
+  private final Vertx vertx;
+  private final TrainDataFormat format;
+  private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+  // Each train's backlog is guarded by the train's monitor
+  private final ConcurrentMap<String, Deque<Change>> backlogs = new ConcurrentHashMap<>();
+
+  public ChangeFeed(Vertx vertx, TrainDataFormat format) {
+    this.vertx = vertx;
+    this.format = format;
+  }
+
+  @Override
+  public void reserved(TrainInventory train, int[] seats, String bookingReference) {
+    JsonArray seatIds = new JsonArray();
+    for (int seat : seats) {
+      seatIds.addString(train.seatId(seat));
+    }
+    JsonObject data = new JsonObject().putNumber("version", train.version()).putArray("seats", seatIds).putString("booking_reference", bookingReference);
+    record(train, new Change(train.version(), "reserved", data.encode()));
+  }
+
+  @Override
+  public void reset(TrainInventory train) {
+    JsonObject data = new JsonObject().putNumber("version", train.version());
+    record(train, new Change(train.version(), "reset", data.encode()));
+  }
+
+  /** Holds don't change the train as clients see it, so there's nothing to send */
+  @Override
+  public void holdsChanged(TrainInventory train) {
+  }
+
+  private void record(TrainInventory train, Change change) {
+    Deque<Change> backlog = backlogs.get(train.trainId());
+    if (backlog == null) {
+      backlog = new ArrayDeque<>();
+      backlogs.put(train.trainId(), backlog);
+    }
+    if (backlog.size() == BACKLOG) backlog.removeFirst();
+    backlog.addLast(change);
+    vertx.eventBus().publish(ADDRESS + train.trainId(), change.toMessage());
+  }
+
+  /**
+   * Starts streaming a train's changes in response to the request. Must be called on the context the
+   * response belongs to, as changes are delivered to it there.
+   */
+  public void stream(HttpServerRequest req, final TrainInventory train) {
+    final HttpServerResponse resp = req.response();
+    resp.setChunked(true);
+    resp.putHeader("Content-Type", "text/event-stream");
+    resp.putHeader("Cache-Control", "no-cache");
+
+    String since = req.headers().get("Last-Event-ID");
+    if (since == null) since = req.params().get("since");
+
+    // Subscribe before catching up so nothing is missed; anything that turns up that the
+    // catch up already covered is skipped
+    final long[] sent = new long[1];
+    final Handler<Message<JsonObject>> changes = new Handler<Message<JsonObject>>() {
+      public void handle(Message<JsonObject> message) {
+        Change change = Change.fromMessage(message.body());
+        if (change.version > sent[0]) {
+          send(resp, change);
+          sent[0] = change.version;
+        }
+      }
+    };
+    vertx.eventBus().registerHandler(ADDRESS + train.trainId(), changes);
+
+    synchronized (train) {
+      List<Change> missed = missedSince(train, since);
+      if (missed == null) {
+        String json = JsonOutput.COMPACT.render(train, format).toString(StandardCharsets.UTF_8);
+        send(resp, new Change(train.version(), "train", json));
+      } else {
+        for (Change change : missed) {
+          send(resp, change);
+        }
+      }
+      sent[0] = train.version();
+    }
+
+    final long keepAlive = vertx.setPeriodic(KEEP_ALIVE_MILLIS, new Handler<Long>() {
+      public void handle(Long timerId) {
+        resp.write(":\n\n");
+      }
+    });
+    resp.closeHandler(new Handler<Void>() {
+      public void handle(Void event) {
+        vertx.cancelTimer(keepAlive);
+        vertx.eventBus().unregisterHandler(ADDRESS + train.trainId(), changes);
+      }
+    });
+  }
+
+  /** The changes after an event id, or null if they aren't all known. Called with the train's monitor held */
+  private List<Change> missedSince(TrainInventory train, String since) {
+    if (since == null || !since.startsWith(epoch + "-")) return null;
+    try {
+      return changesAfter(train, Long.parseLong(since.substring(epoch.length() + 1)));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * The changes made to a train since the version, as a json list of the events' data with the event
+   * added, e.g. [{"version": 18, "seats": ["1A"], "booking_reference": "75bcd15", "event": "reserved"}],
+   * or null if they aren't all known. Must be called with the train's monitor held.
+   */
+  public String changesSince(TrainInventory train, long version) {
+    List<Change> changes = changesAfter(train, version);
+    if (changes == null) return null;
+    JsonArray events = new JsonArray();
+    for (Change change : changes) {
+      events.addObject(new JsonObject(change.data).putString("event", change.event));
+    }
+    return events.encode();
+  }
+
+  private List<Change> changesAfter(TrainInventory train, long version) {
+    if (version < 0 || version > train.version()) return null;
+
+    List<Change> changes = new ArrayList<>();
+    if (version == train.version()) return changes;
+    Deque<Change> backlog = backlogs.get(train.trainId());
+    if (backlog == null || backlog.isEmpty() || backlog.getFirst().version > version + 1) return null;
+    for (Change change : backlog) {
+      if (change.version > version) changes.add(change);
+    }
+    return changes;
+  }
+
+  private void send(HttpServerResponse resp, Change change) {
+    resp.write("id: " + epoch + "-" + change.version + "\nevent: " + change.event + "\ndata: " + change.data + "\n\n");
+  }
+
+  private static final class Change {
+    private final long version;
+    private final String event;
+    private final String data;
+
+    private Change(long version, String event, String data) {
+      this.version = version;
+      this.event = event;
+      this.data = data;
+    }
+
+    private JsonObject toMessage() {
+      return new JsonObject().putNumber("version", version).putString("event", event).putString("data", data);
+    }
+
+    private static Change fromMessage(JsonObject message) {
+      return new Change(message.getLong("version"), message.getString("event"), message.getString("data"));
+    }
+  }
+}
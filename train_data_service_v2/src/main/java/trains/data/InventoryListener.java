@@ -0,0 +1,17 @@
+package trains.data;
+
+/**
+ * Told about each change to a train's bookings. Called while the train's monitor is held, so a
+ * listener sees every train's changes in the order they were made and must not block for long.
+ */
+public interface InventoryListener {
+
+  /** Seats (as handles) that are now booked to the reference and weren't before */
+  void reserved(TrainInventory train, int[] seats, String bookingReference);
+
+  /** Every reservation on the train was removed, along with its holds */
+  void reset(TrainInventory train);
+
+  /** Seats on the train were held, or their hold was released, confirmed or expired. Not a change to the bookings */
+  void holdsChanged(TrainInventory train);
+}
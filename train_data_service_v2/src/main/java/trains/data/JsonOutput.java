@@ -0,0 +1,64 @@
+package trains.data;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonWriter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.vertx.java.core.json.JsonObject;
+
+import java.io.IOException;
+
+/**
+ * How JSON responses are laid out. Compact is the default; pretty printing is there for humans reading
+ * responses by hand and is switched on with {"json_output": "pretty"} in the module config.
+ *
+ * Either way JSON is streamed straight into the buffer that becomes the response body.
+ */
+public enum JsonOutput {
+  COMPACT(""),
+  PRETTY("  ");
+
+  private static final Gson GSON = new Gson();
+
+  private final String indent;
+
+  JsonOutput(String indent) {
+    this.indent = indent;
+  }
+
+  public static JsonOutput from(JsonObject config) {
+    return valueOf(config.getString("json_output", "compact").toUpperCase());
+  }
+
+  public ByteBuf render(TrainInventory train, TrainDataFormat format) {
+    ByteBuf out = Unpooled.buffer();
+    try {
+      JsonWriter json = writerFor(out);
+      format.write(train, json);
+      json.flush();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return out;
+  }
+
+  public ByteBuf render(JsonElement element) {
+    ByteBuf out = Unpooled.buffer();
+    try {
+      JsonWriter json = writerFor(out);
+      GSON.toJson(element, json);
+      json.flush();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return out;
+  }
+
+  private JsonWriter writerFor(ByteBuf out) {
+    JsonWriter json = new JsonWriter(new BufferWriter(out));
+    json.setIndent(indent);
+    json.setHtmlSafe(true);
+    return json;
+  }
+}
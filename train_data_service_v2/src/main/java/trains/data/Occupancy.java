@@ -0,0 +1,65 @@
+package trains.data;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * How full trains are, from counts each train keeps up to date as seats are booked, so it costs
+ * nothing like fetching the trains themselves, e.g.
+ * {"train_id": "express_2000", "seats": 16, "booked": 4, "held": 2, "occupancy": 25.0}
+ *
+ * A single train also lists its coaches the same way. Occupancy is the percentage of seats booked, to one
+ * decimal place; held seats aren't booked yet, but can't be reserved either, so they're counted apart.
+ */
+final class Occupancy {
+
+  private Occupancy() {
+  }
+
+  static JsonObject of(TrainInventory train) {
+    JsonObject occupancy = summary(train);
+    JsonArray coaches = new JsonArray();
+    synchronized (train) {
+      for (int c = 0; c < train.coachCount(); c++) {
+        JsonObject coach = new JsonObject();
+        coach.addProperty("coach", train.coach(c));
+        addCounts(coach, train.seatCount(c), train.seatCount(c) - train.freeSeatCount(c), train.heldSeatCount(c));
+        coaches.add(coach);
+      }
+    }
+    occupancy.add("coaches", coaches);
+    return occupancy;
+  }
+
+  /** Every train's occupancy, without the coaches. Trains that haven't been loaded yet aren't loaded for it */
+  static JsonObject of(InventoryStore inventory) {
+    final JsonArray trains = new JsonArray();
+    inventory.countSeats(new InventoryStore.SeatCounter() {
+      public void count(String trainId, int seats, int free, int held, int mostAvailableInACoach) {
+        JsonObject occupancy = new JsonObject();
+        occupancy.addProperty("train_id", trainId);
+        addCounts(occupancy, seats, seats - free, held);
+        trains.add(occupancy);
+      }
+    });
+    JsonObject occupancy = new JsonObject();
+    occupancy.add("trains", trains);
+    return occupancy;
+  }
+
+  private static JsonObject summary(TrainInventory train) {
+    JsonObject occupancy = new JsonObject();
+    occupancy.addProperty("train_id", train.trainId());
+    synchronized (train) {
+      addCounts(occupancy, train.seatCount(), train.seatCount() - train.freeSeatCount(), train.heldSeatCount());
+    }
+    return occupancy;
+  }
+
+  private static void addCounts(JsonObject occupancy, int seats, int booked, int held) {
+    occupancy.addProperty("seats", seats);
+    occupancy.addProperty("booked", booked);
+    occupancy.addProperty("held", held);
+    occupancy.addProperty("occupancy", seats == 0 ? 0.0 : Math.round(booked * 1000.0 / seats) / 10.0);
+  }
+}
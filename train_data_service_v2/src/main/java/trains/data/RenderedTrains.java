@@ -0,0 +1,98 @@
+package trains.data;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.vertx.java.core.buffer.Buffer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the JSON each train was last rendered as, keyed by the train's version.
+ *
+ * A train is only re-rendered when its version has moved on since the cached copy was made. Rendering
+ * happens while holding the train's cache entry, so readers that find the same stale copy wait for one
+ * re-render rather than each doing their own.
+ */
+public final class RenderedTrains {
+
+  private final TrainDataFormat format;
+  private final JsonOutput output;
+  private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+  public RenderedTrains(TrainDataFormat format, JsonOutput output) {
+    this.format = format;
+    this.output = output;
+  }
+
+  public Rendered get(TrainInventory train) {
+    Entry entry = entries.get(train.trainId());
+    if (entry == null) {
+      Entry newEntry = new Entry();
+      entry = entries.putIfAbsent(train.trainId(), newEntry);
+      if (entry == null) entry = newEntry;
+    }
+
+    synchronized (entry) {
+      synchronized (train) {
+        long version = train.version();
+        if (entry.rendered == null || entry.rendered.version != version) {
+          ByteBuf json = Unpooled.unreleasableBuffer(output.render(train, format));
+          entry.rendered = new Rendered(version, etag(version), json);
+        }
+        return entry.rendered;
+      }
+    }
+  }
+
+  /** The ETag a train has at the version, without rendering it */
+  public String etag(long version) {
+    return "\"" + epoch + "-" + version + "\"";
+  }
+
+  /** The version an ETag was given for, or -1 if it wasn't given out since the service started */
+  public long versionOf(String etag) {
+    String prefix = "\"" + epoch + "-";
+    if (etag == null || !etag.startsWith(prefix) || !etag.endsWith("\"") || etag.length() == prefix.length() + 1) return -1;
+    try {
+      return Long.parseLong(etag.substring(prefix.length(), etag.length() - 1));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static final class Entry {
+    private Rendered rendered;
+  }
+
+  public static final class Rendered {
+    private final long version;
+    private final String etag;
+    private final ByteBuf json;
+
+    private Rendered(long version, String etag, ByteBuf json) {
+      this.version = version;
+      this.etag = etag;
+      this.json = json;
+    }
+
+    public long version() {
+      return version;
+    }
+
+    public String etag() {
+      return etag;
+    }
+
+    /** True if an If-None-Match header lists this rendering's ETag */
+    public boolean matches(String ifNoneMatch) {
+      return ifNoneMatch != null && (ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(etag));
+    }
+
+    /** A fresh view of the cached bytes; each response needs its own as writing one consumes it */
+    public Buffer body() {
+      return new Buffer(json.duplicate());
+    }
+  }
+}
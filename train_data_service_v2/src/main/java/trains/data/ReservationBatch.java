@@ -0,0 +1,130 @@
+package trains.data;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static trains.data.TrainDataService.BAD_REQUEST;
+
+/**
+ * Applies a list of reservations in one go, e.g.
+ * [{"train_id": "express_2000", "seats": ["1A", "2A"], "booking_reference": "75bcd15"}, ...]
+ *
+ * The reservations are grouped by train, and each train's group is all or nothing: its entries are checked
+ * and made together under the train's lock, in the order they are listed, with the same rules as a single
+ * reservation. If any of them can't be made, e.g. a seat is already booked or one entry is missing its seats,
+ * none of that train's entries are made. Groups for different trains succeed or fail on their own, and every
+ * entry gets its own result.
+ */
+final class ReservationBatch {
+
+  private ReservationBatch() {
+  }
+
+  static JsonObject reserve(InventoryStore inventory, JsonArray entries) {
+    JsonObject[] results = new JsonObject[entries.size()];
+    Map<String, List<Integer>> trains = new LinkedHashMap<>();
+    for (int e = 0; e < results.length; e++) {
+      JsonElement entry = entries.get(e);
+      JsonObject attrs = entry.isJsonObject() ? entry.getAsJsonObject() : new JsonObject();
+      String trainId = stringFrom(attrs.get("train_id"));
+      if (trainId == null) {
+        results[e] = result(attrs, BAD_REQUEST, missingAttributes(attrs));
+        continue;
+      }
+      if (!trains.containsKey(trainId)) trains.put(trainId, new ArrayList<Integer>());
+      trains.get(trainId).add(e);
+    }
+
+    for (Map.Entry<String, List<Integer>> train : trains.entrySet()) {
+      reserve(inventory, train.getKey(), train.getValue(), entries, results);
+    }
+
+    JsonArray resultList = new JsonArray();
+    for (JsonObject result : results) {
+      resultList.add(result);
+    }
+    JsonObject response = new JsonObject();
+    response.add("results", resultList);
+    return response;
+  }
+
+  /** Makes all of one train's reservations, or none of them */
+  private static void reserve(InventoryStore inventory, String trainId, List<Integer> group, JsonArray entries, JsonObject[] results) {
+    List<List<String>> seats = new ArrayList<>(group.size());
+    List<String> bookingRefs = new ArrayList<>(group.size());
+    int invalid = -1;
+    for (int e : group) {
+      JsonObject attrs = entries.get(e).getAsJsonObject();
+      List<String> entrySeats = seatIdsFrom(attrs.get("seats"));
+      String bookingRef = stringFrom(attrs.get("booking_reference"));
+      if (entrySeats == null || bookingRef == null) {
+        results[e] = result(attrs, BAD_REQUEST, missingAttributes(attrs));
+        invalid = e;
+        break;
+      }
+      seats.add(entrySeats);
+      bookingRefs.add(bookingRef);
+    }
+
+    TrainInventory train = inventory.train(trainId);
+    for (int i = 0; i < group.size(); i++) {
+      int e = group.get(i);
+      // The invalid entry keeps the error saying why
+      if (results[e] != null) continue;
+      JsonObject attrs = entries.get(e).getAsJsonObject();
+      String bookingRef = stringFrom(attrs.get("booking_reference"));
+      if (train == null) {
+        results[e] = result(attrs, Reservation.trainNotFound(trainId, bookingRef));
+      } else if (invalid >= 0) {
+        results[e] = result(attrs, Reservation.batchFailed(trainId, bookingRef));
+      }
+    }
+    if (train == null || invalid >= 0) return;
+
+    Reservation[] reservations = train.reserveAll(seats, bookingRefs);
+    for (int i = 0; i < group.size(); i++) {
+      results[group.get(i)] = result(entries.get(group.get(i)).getAsJsonObject(), reservations[i]);
+    }
+  }
+
+  private static JsonObject result(JsonObject attrs, Reservation reservation) {
+    return result(attrs, reservation.status(), reservation.error());
+  }
+
+  private static JsonObject result(JsonObject attrs, int status, String error) {
+    JsonObject result = new JsonObject();
+    result.addProperty("train_id", stringFrom(attrs.get("train_id")));
+    result.addProperty("booking_reference", stringFrom(attrs.get("booking_reference")));
+    result.addProperty("status", status);
+    if (error != null) {
+      result.addProperty("error", error);
+    }
+    return result;
+  }
+
+  private static String missingAttributes(JsonObject attrs) {
+    return String.format("One or more request attributes missing: [train_id=%s, seats=%s, booking_reference=%s]",
+        stringFrom(attrs.get("train_id")), attrs.get("seats"), stringFrom(attrs.get("booking_reference")));
+  }
+
+  static String stringFrom(JsonElement attr) {
+    if (attr == null || !attr.isJsonPrimitive() || attr.getAsString().trim().isEmpty()) return null;
+    return attr.getAsString();
+  }
+
+  static List<String> seatIdsFrom(JsonElement attr) {
+    if (attr == null || !attr.isJsonArray() || attr.getAsJsonArray().size() == 0) return null;
+    List<String> seats = new ArrayList<>();
+    for (JsonElement seat : attr.getAsJsonArray()) {
+      if (!seat.isJsonPrimitive()) return null;
+      seats.add(seat.getAsString());
+    }
+    return seats;
+  }
+}
@@ -0,0 +1,145 @@
+package trains.data;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Seats held for a while without being booked, so someone can choose seats and then get a booking
+ * reference and pay without the seats going to someone else in the meantime. A hold is confirmed by
+ * booking its seats to a reference, or released, or else it expires and the seats are free again.
+ *
+ * Expiry is driven by one {@link TimerWheel} rather than a timer per hold, so however many holds are
+ * outstanding, each tick only touches the holds due on it. A hold is one object, in the wheel's slot and
+ * in the map from its id; its seats are marked on the train itself, see {@link TrainInventory#hold}.
+ *
+ * Holds aren't recorded in the {@link ReservationJournal}: if the service restarts they are gone and the
+ * seats are free, which is what would have happened soon anyway.
+ */
+public final class SeatHolds {
+
+  private final InventoryStore inventory;
+  private final TimerWheel wheel;
+  private final long holdMillis;
+  private final AtomicInteger ids = new AtomicInteger();
+  private final ConcurrentMap<Integer, Hold> holds = new ConcurrentHashMap<>();
+
+  public SeatHolds(InventoryStore inventory, TimerWheel wheel, long holdMillis) {
+    this.inventory = inventory;
+    this.wheel = wheel;
+    this.holdMillis = holdMillis;
+  }
+
+  /** How long a hold lasts before it expires */
+  public long holdMillis() {
+    return holdMillis;
+  }
+
+  /** The number of holds that haven't been confirmed, released or expired yet */
+  public int size() {
+    return holds.size();
+  }
+
+  /**
+   * Holds every seat, or none of them if any doesn't exist, is booked or is held already. A seat asked
+   * for more than once is held once
+   */
+  public Reservation hold(String trainId, List<String> seatIds) {
+    TrainInventory train = inventory.train(trainId);
+    if (train == null) {
+      return Reservation.trainNotFound(trainId, null);
+    }
+    int[] seats = new int[seatIds.size()];
+    int count = 0;
+    for (String seatId : seatIds) {
+      int seat = train.findSeat(seatId);
+      if (seat == TrainInventory.NO_SEAT) {
+        return Reservation.seatNotFound(trainId, seatId, null);
+      }
+      if (!contains(seats, count, seat)) seats[count++] = seat;
+    }
+    seats = Arrays.copyOf(seats, count);
+
+    int id = nextId();
+    Reservation held = train.hold(seats, id);
+    if (held.outcome() == Reservation.Outcome.HELD) {
+      Hold hold = new Hold(id, train, seats);
+      holds.put(id, hold);
+      wheel.schedule(hold, holdMillis);
+    }
+    return held;
+  }
+
+  /** Books the held seats to the reference, if the hold is still there */
+  public Reservation confirm(String holdId, String bookingReference) {
+    Hold hold = remove(holdId);
+    if (hold == null) {
+      return Reservation.holdNotFound(holdId);
+    }
+    wheel.cancel(hold);
+    return hold.train.confirm(hold.seats, hold.id, bookingReference);
+  }
+
+  /** Frees the held seats. False if there is no such hold, e.g. because it has expired */
+  public boolean release(String holdId) {
+    Hold hold = remove(holdId);
+    if (hold == null) return false;
+    wheel.cancel(hold);
+    hold.train.release(hold.seats, hold.id);
+    return true;
+  }
+
+  /** The train the hold is on, or null if there is no such hold */
+  public TrainInventory trainOf(String holdId) {
+    Hold hold = find(holdId);
+    return hold == null ? null : hold.train;
+  }
+
+  private Hold find(String holdId) {
+    try {
+      return holds.get(Integer.valueOf(holdId));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /** Whoever removes a hold gets to confirm or release it, so it can't be done twice */
+  private Hold remove(String holdId) {
+    Hold hold = find(holdId);
+    return hold != null && holds.remove(hold.id, hold) ? hold : null;
+  }
+
+  private static boolean contains(int[] seats, int count, int seat) {
+    for (int i = 0; i < count; i++) {
+      if (seats[i] == seat) return true;
+    }
+    return false;
+  }
+
+  private int nextId() {
+    int id;
+    do {
+      id = ids.incrementAndGet() & Integer.MAX_VALUE;
+    } while (id == TrainInventory.NO_HOLD);
+    return id;
+  }
+
+  private final class Hold extends TimerWheel.Timeout {
+    private final int id;
+    private final TrainInventory train;
+    private final int[] seats;
+
+    private Hold(int id, TrainInventory train, int[] seats) {
+      this.id = id;
+      this.train = train;
+      this.seats = seats;
+    }
+
+    @Override
+    protected void expired() {
+      if (holds.remove(id, this)) train.release(seats, id);
+    }
+  }
+}
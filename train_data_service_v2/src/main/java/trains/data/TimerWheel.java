@@ -0,0 +1,113 @@
+package trains.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs timeouts once their delay has passed, to within a tick, however many of them are pending.
+ *
+ * A hashed timing wheel: a ring of slots, one per tick, each a list of the timeouts due on a tick that
+ * lands on it. Scheduling or cancelling a timeout links it into or out of its slot's list, and each tick
+ * only looks at its own slot, so a timeout costs the same whether there are ten pending or a million,
+ * and nothing is kept per timeout beyond the timeout itself. A delay longer than the wheel goes round
+ * stays in its slot until the tick it's due on comes round.
+ *
+ * Something has to call {@link #advance()} at least once a tick, e.g. a periodic timer on an event loop.
+ * Timeouts are run by the thread that calls it, after the wheel's monitor is released.
+ */
+public final class TimerWheel {
+
+  /** Something to run after a delay. Extended rather than wrapped, so a pending timeout is one object */
+  public abstract static class Timeout {
+    private Timeout previous;
+    private Timeout next;
+    private long deadline;
+    private boolean pending;
+
+    /** Called once the delay has passed, unless it's been cancelled */
+    protected abstract void expired();
+  }
+
+  private final long tickNanos;
+  private final Timeout[] slots;
+  private final int mask;
+  private final long startNanos = System.nanoTime();
+  private long tick;
+  private int pending;
+
+  /** The number of slots must be a power of two */
+  public TimerWheel(long tickMillis, int slotCount) {
+    if (tickMillis <= 0 || Integer.bitCount(slotCount) != 1) {
+      throw new IllegalArgumentException("The tick must be positive and the number of slots a power of two");
+    }
+    this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+    this.slots = new Timeout[slotCount];
+    this.mask = slotCount - 1;
+  }
+
+  /** Runs the timeout after the delay, or after its new delay if it was already pending */
+  public synchronized void schedule(Timeout timeout, long delayMillis) {
+    if (timeout.pending) unlink(timeout);
+    long ticks = Math.max(1, (TimeUnit.MILLISECONDS.toNanos(delayMillis) + tickNanos - 1) / tickNanos);
+    timeout.deadline = Math.max(currentTick(), tick) + ticks;
+    int slot = (int) (timeout.deadline & mask);
+    timeout.next = slots[slot];
+    if (timeout.next != null) timeout.next.previous = timeout;
+    slots[slot] = timeout;
+    timeout.pending = true;
+    pending++;
+  }
+
+  /** True if the timeout was pending, and now won't run */
+  public synchronized boolean cancel(Timeout timeout) {
+    if (!timeout.pending) return false;
+    unlink(timeout);
+    return true;
+  }
+
+  public synchronized int pending() {
+    return pending;
+  }
+
+  /** Runs every timeout that has come due since the last time it was called */
+  public void advance() {
+    List<Timeout> expired = new ArrayList<>();
+    synchronized (this) {
+      long now = currentTick();
+      while (tick < now) {
+        tick++;
+        Timeout timeout = slots[(int) (tick & mask)];
+        while (timeout != null) {
+          Timeout next = timeout.next;
+          if (timeout.deadline <= tick) {
+            unlink(timeout);
+            expired.add(timeout);
+          }
+          timeout = next;
+        }
+      }
+    }
+
+    for (Timeout timeout : expired) {
+      timeout.expired();
+    }
+  }
+
+  private long currentTick() {
+    return (System.nanoTime() - startNanos) / tickNanos;
+  }
+
+  private void unlink(Timeout timeout) {
+    if (timeout.previous != null) {
+      timeout.previous.next = timeout.next;
+    } else {
+      slots[(int) (timeout.deadline & mask)] = timeout.next;
+    }
+    if (timeout.next != null) timeout.next.previous = timeout.previous;
+    timeout.previous = null;
+    timeout.next = null;
+    timeout.pending = false;
+    pending--;
+  }
+}
@@ -0,0 +1,86 @@
+package trains.data;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The JSON shapes a train's seats are read from and rendered as.
+ * Version 1 of the service lists seats under their coaches, version 2 keys them by seat id.
+ */
+public enum TrainDataFormat {
+
+  /*
+  {"coaches": [
+    {"coach": "A", "seats": [{"seat_number": "1", "booking_reference": ""}]}
+  ]}
+  */
+  COACHES {
+    @Override
+    void read(JsonObject trainData, TrainInventory.Builder train) {
+      for (JsonElement aCoachesData : trainData.getAsJsonArray("coaches")) {
+        JsonObject coach = aCoachesData.getAsJsonObject();
+        String coachId = coach.get("coach").getAsString();
+        for (JsonElement aSeatsData : coach.getAsJsonArray("seats")) {
+          JsonObject seat = aSeatsData.getAsJsonObject();
+          train.seat(coachId, seat.get("seat_number").getAsString(), seat.get("booking_reference").getAsString());
+        }
+      }
+    }
+
+    @Override
+    void write(TrainInventory train, JsonWriter out) throws IOException {
+      out.beginObject().name("coaches").beginArray();
+      for (int c = 0; c < train.coachCount(); c++) {
+        out.beginObject().name("coach").value(train.coach(c)).name("seats").beginArray();
+        for (int s = 0; s < train.seatCount(c); s++) {
+          int seat = TrainInventory.seat(c, s);
+          out.beginObject()
+            .name("seat_number").value(train.seatNumber(seat))
+            .name("booking_reference").value(train.bookingReference(seat))
+            .endObject();
+        }
+        out.endArray().endObject();
+      }
+      out.endArray().endObject();
+    }
+  },
+
+  /*
+  {"seats": {
+    "1A": {"coach": "A", "seat_number": "1", "booking_reference": ""}
+  }}
+  */
+  SEATS {
+    @Override
+    void read(JsonObject trainData, TrainInventory.Builder train) {
+      for (Map.Entry<String, JsonElement> entry : trainData.getAsJsonObject("seats").entrySet()) {
+        JsonObject seat = entry.getValue().getAsJsonObject();
+        train.seat(seat.get("coach").getAsString(), seat.get("seat_number").getAsString(), seat.get("booking_reference").getAsString());
+      }
+    }
+
+    @Override
+    void write(TrainInventory train, JsonWriter out) throws IOException {
+      out.beginObject().name("seats").beginObject();
+      for (int c = 0; c < train.coachCount(); c++) {
+        for (int s = 0; s < train.seatCount(c); s++) {
+          int seat = TrainInventory.seat(c, s);
+          out.name(train.seatId(seat)).beginObject()
+            .name("coach").value(train.coach(c))
+            .name("seat_number").value(train.seatNumber(seat))
+            .name("booking_reference").value(train.bookingReference(seat))
+            .endObject();
+        }
+      }
+      out.endObject().endObject();
+    }
+  };
+
+  abstract void read(JsonObject trainData, TrainInventory.Builder train);
+
+  abstract void write(TrainInventory train, JsonWriter out) throws IOException;
+}
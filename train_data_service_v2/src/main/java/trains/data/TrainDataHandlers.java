@@ -0,0 +1,277 @@
+package trains.data;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.EventBus;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static trains.data.TrainDataService.BAD_REQUEST;
+import static trains.data.TrainDataService.INTERNAL_SERVER_ERROR;
+import static trains.data.TrainDataService.NOT_FOUND;
+import static trains.data.TrainDataService.PRECONDITION_FAILED;
+
+/**
+ * Gets, reserves and resets trains, the same way whichever way the service is called. The HTTP routes and
+ * {@link BinaryReservations} are adapters over these, and {@link #register} puts them on the event bus so
+ * verticles in the same Vert.x instance can call them without HTTP framing or a socket:
+ *
+ * trains.data.get      the train id as a string, replied to with the train's json as a buffer
+ * trains.data.reserve  {"train_id": "express_2000", "seats": ["1A", "2A"], "booking_reference": "75bcd15"},
+ *                      replied to with the train's version after the reservation, as a long. Add
+ *                      "version" to only reserve them if the train is still at that version
+ * trains.data.reset    the train id as a string, replied to with the train's version after the reset
+ *
+ * A request that can't be met is failed with the status code and error the HTTP route would have given.
+ */
+public final class TrainDataHandlers {
+
+  public static final String GET = "trains.data.get";
+  public static final String RESERVE = "trains.data.reserve";
+  public static final String RESET = "trains.data.reset";
+
+  /** Reserve whatever version the train is at */
+  public static final long ANY_VERSION = Long.MIN_VALUE;
+
+  private static final String NOT_RECORDED = "The change was made but couldn't be recorded, so it may be lost if the service restarts";
+
+  private final InventoryStore inventory;
+  private final RenderedTrains renderedTrains;
+  private final ChangeFeed changeFeed;
+  private final ReservationJournal journal;
+  private final SeatHolds holds;
+
+  public TrainDataHandlers(InventoryStore inventory, RenderedTrains renderedTrains, ChangeFeed changeFeed, ReservationJournal journal, SeatHolds holds) {
+    this.inventory = inventory;
+    this.renderedTrains = renderedTrains;
+    this.changeFeed = changeFeed;
+    this.journal = journal;
+    this.holds = holds;
+  }
+
+  /** The train's json as it is now, or null if there is no such train */
+  public RenderedTrains.Rendered get(String trainId) {
+    TrainInventory train = inventory.train(trainId);
+    return train == null ? null : renderedTrains.get(train);
+  }
+
+  /**
+   * Reserves the seats, telling the handler how it went once the reservation is in the journal, so a
+   * caller is never told about a reservation that would be lost if the service stopped.
+   */
+  public void reserve(String trainId, List<String> seats, String bookingRef, Handler<Result> then) {
+    reserve(trainId, seats, bookingRef, ANY_VERSION, then);
+  }
+
+  /**
+   * Reserves the seats only if the train is still at the version they were chosen from. If it has moved
+   * on nothing is reserved, and the result has the changes made since, so the caller can choose again
+   * without fetching the whole train.
+   */
+  public void reserve(String trainId, List<String> seats, String bookingRef, long ifVersion, Handler<Result> then) {
+    TrainInventory train = inventory.train(trainId);
+    if (train == null || ifVersion == ANY_VERSION) {
+      reserved(inventory.reserve(trainId, seats, bookingRef), train, then);
+      return;
+    }
+
+    Result changed = null;
+    Reservation reservation = null;
+    synchronized (train) {
+      if (train.version() == ifVersion) {
+        reservation = train.reserve(seats, bookingRef);
+      } else {
+        changed = new Result(PRECONDITION_FAILED, String.format("%s has changed since version %d", trainId, ifVersion), train, changeFeed.changesSince(train, ifVersion));
+      }
+    }
+    if (changed != null) {
+      then.handle(changed);
+    } else {
+      reserved(reservation, train, then);
+    }
+  }
+
+  private void reserved(Reservation reservation, TrainInventory train, Handler<Result> then) {
+    if (reservation.outcome() != Reservation.Outcome.RESERVED) {
+      then.handle(new Result(reservation.status(), reservation.error(), train));
+      return;
+    }
+    whenRecorded(new Result(reservation.status(), null, train), then);
+  }
+
+  /** Holds the seats for a while, see {@link SeatHolds}. Nothing is booked, so there is nothing to record */
+  public Reservation hold(String trainId, List<String> seats) {
+    return holds.hold(trainId, seats);
+  }
+
+  /** Books the held seats to the reference, telling the handler once the booking is in the journal */
+  public void confirm(String holdId, String bookingRef, Handler<Result> then) {
+    TrainInventory train = holds.trainOf(holdId);
+    reserved(holds.confirm(holdId, bookingRef), train, then);
+  }
+
+  /** Frees the held seats. False if there is no such hold */
+  public boolean release(String holdId) {
+    return holds.release(holdId);
+  }
+
+  /** Removes all reservations on the train, telling the handler once the reset is in the journal */
+  public void reset(String trainId, Handler<Result> then) {
+    TrainInventory train = inventory.train(trainId);
+    if (train == null) {
+      then.handle(new Result(NOT_FOUND, String.format("Train with ID %s was not found", trainId), null));
+      return;
+    }
+    train.reset();
+    whenRecorded(new Result(Reservation.OK, null, train), then);
+  }
+
+  private void whenRecorded(final Result result, final Handler<Result> then) {
+    if (journal == null) {
+      then.handle(result);
+      return;
+    }
+    journal.whenDurable(new Handler<AsyncResult<Void>>() {
+      public void handle(AsyncResult<Void> recorded) {
+        then.handle(recorded.succeeded() ? result : new Result(INTERNAL_SERVER_ERROR, NOT_RECORDED, result.train));
+      }
+    });
+  }
+
+  /** Answers get, reserve and reset messages sent to this verticle instance, recording them in metrics */
+  public void register(EventBus eventBus, final Metrics metrics) {
+    eventBus.registerHandler(GET, new Handler<Message<String>>() {
+      private final Metrics.Route route = metrics.route(GET);
+
+      public void handle(Message<String> message) {
+        long start = System.nanoTime();
+        RenderedTrains.Rendered rendered = get(message.body());
+        if (rendered == null) {
+          fail(route, start, message, new Result(NOT_FOUND, String.format("Train with ID %s was not found", message.body()), null));
+        } else {
+          route.record(System.nanoTime() - start, Reservation.OK, rendered.body().length());
+          message.reply(rendered.body());
+        }
+      }
+    });
+
+    eventBus.registerHandler(RESERVE, new Handler<Message<JsonObject>>() {
+      private final Metrics.Route route = metrics.route(RESERVE);
+
+      public void handle(final Message<JsonObject> message) {
+        final long start = System.nanoTime();
+        JsonObject body = message.body();
+        String trainId = stringFrom(body, "train_id");
+        String bookingRef = stringFrom(body, "booking_reference");
+        List<String> seats = seatIdsFrom(body);
+        if (trainId == null || bookingRef == null || seats == null) {
+          fail(route, start, message, new Result(BAD_REQUEST, String.format("One or more request attributes missing: [train_id=%s, seats=%s, booking_reference=%s]", trainId, seats, bookingRef), null));
+          return;
+        }
+        Object version = body.getValue("version");
+        long ifVersion = version instanceof Number ? ((Number) version).longValue() : ANY_VERSION;
+        reserve(trainId, seats, bookingRef, ifVersion, new Handler<Result>() {
+          public void handle(Result result) {
+            replyWithVersion(route, start, message, result);
+          }
+        });
+      }
+    });
+
+    eventBus.registerHandler(RESET, new Handler<Message<String>>() {
+      private final Metrics.Route route = metrics.route(RESET);
+
+      public void handle(final Message<String> message) {
+        final long start = System.nanoTime();
+        reset(message.body(), new Handler<Result>() {
+          public void handle(Result result) {
+            replyWithVersion(route, start, message, result);
+          }
+        });
+      }
+    });
+  }
+
+  private static void replyWithVersion(Metrics.Route route, long start, Message<?> message, Result result) {
+    if (result.status() != Reservation.OK) {
+      fail(route, start, message, result);
+      return;
+    }
+    route.record(System.nanoTime() - start, result.status(), 8);
+    message.reply(result.version());
+  }
+
+  private static void fail(Metrics.Route route, long start, Message<?> message, Result result) {
+    route.record(System.nanoTime() - start, result.status(), result.error().length());
+    message.fail(result.status(), result.error());
+  }
+
+  private static String stringFrom(JsonObject body, String field) {
+    Object value = body == null ? null : body.getValue(field);
+    return value instanceof String && !((String) value).trim().isEmpty() ? (String) value : null;
+  }
+
+  private static List<String> seatIdsFrom(JsonObject body) {
+    Object value = body == null ? null : body.getValue("seats");
+    if (!(value instanceof JsonArray) || ((JsonArray) value).size() == 0) return null;
+    List<String> seats = new ArrayList<>(((JsonArray) value).size());
+    for (Object seat : (JsonArray) value) {
+      if (!(seat instanceof String)) return null;
+      seats.add((String) seat);
+    }
+    return seats;
+  }
+
+  /** How a reservation or reset went, and the train's version just after it */
+  public static final class Result {
+    private final int status;
+    private final String error;
+    private final TrainInventory train;
+    private final long version;
+    private final String changes;
+
+    private Result(int status, String error, TrainInventory train) {
+      this(status, error, train, null);
+    }
+
+    private Result(int status, String error, TrainInventory train, String changes) {
+      this.status = status;
+      this.error = error;
+      this.train = train;
+      this.version = train == null ? -1 : train.version();
+      this.changes = changes;
+    }
+
+    /** The HTTP status code that reports it */
+    public int status() {
+      return status;
+    }
+
+    /** Why it failed, or null if it didn't */
+    public String error() {
+      return error;
+    }
+
+    /** The train, or null if there is no such train */
+    public TrainInventory train() {
+      return train;
+    }
+
+    /** The train's version, or -1 if there is no such train */
+    public long version() {
+      return version;
+    }
+
+    /**
+     * For a reservation turned down because the train had changed, the changes since the version it was
+     * meant for as a json list, see {@link ChangeFeed#changesSince}. Otherwise, or if they aren't known, null
+     */
+    public String changes() {
+      return changes;
+    }
+  }
+}
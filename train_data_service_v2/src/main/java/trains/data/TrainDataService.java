@@ -1,30 +1,56 @@
 package trains.data;
 
 import com.google.gson.*;
+import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.MultiMap;
 import org.vertx.java.core.VoidHandler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.shareddata.Shareable;
 import org.vertx.java.core.http.HttpServerRequest;
-import org.vertx.java.core.http.HttpServerResponse;
 import org.vertx.java.core.http.RouteMatcher;
 import org.vertx.java.platform.Verticle;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.util.Iterator;
-import java.util.Map;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
 
 public class TrainDataService extends Verticle {
 
+  private static final String TRAIN_DATA = "src/main/resources/trains.json";
+  private static final String BINARY_TRAIN_DATA = "src/main/resources/trains.bin";
+  private static final TrainDataFormat FORMAT = TrainDataFormat.SEATS;
+
+  public static final int NOT_MODIFIED = 304;
   public static final int BAD_REQUEST = 400;
   public static final int NOT_FOUND = 404;
   public static final int CONFLICT = 409;
+  public static final int PRECONDITION_FAILED = 412;
+  public static final int INTERNAL_SERVER_ERROR = 500;
+
+  private static final long SNAPSHOT_EVERY = 10000;
+  private static final int SEARCH_LIMIT = 100;
+  private static final long HOLD_SECONDS = 300;
+  private static final long HOLD_TICK_MILLIS = 1000;
+  private static final int HOLD_WHEEL_SLOTS = 512;
+
+  private JsonOutput jsonOutput;
+  private SharedTrainData shared;
 
   @Override
   public void start() {
     RouteMatcher rm = new RouteMatcher();
 
-    final JsonObject data = readTrainData();
+    jsonOutput = JsonOutput.from(container.config());
+    shared = sharedTrainData();
+    final InventoryStore inventory = shared.inventory;
+    final RenderedTrains renderedTrains = shared.renderedTrains;
+    final CapacityIndex capacityIndex = shared.capacityIndex;
+    final ChangeFeed changeFeed = shared.changeFeed;
+    final Metrics metrics = shared.metrics;
+    final TrainDataHandlers handlers = shared.handlers;
 
     /*
     Get data for example about the train with id "express_2000" like this:
@@ -40,16 +66,158 @@ public class TrainDataService extends Verticle {
     Note I've left out all the extraneous details about where the train is going to and
     from, at what time, whether there's a buffet car etc. All that's there is which seats
     the train has, and if they are already booked.
+
+    Each response carries an ETag for the train's current reservations. Send it back in an
+    If-None-Match header and you'll get a 304 with no body if nothing has changed since.
     */
     rm.get("/data_for_train/:trainId", new Handler<HttpServerRequest>() {
+      private final Metrics.Route route = metrics.route("/data_for_train");
+
+      public void handle(HttpServerRequest req) {
+        final long start = System.nanoTime();
+        String trainId = req.params().get("trainId");
+        req.response().putHeader("Content-Type", "application/json");
+        RenderedTrains.Rendered rendered = handlers.get(trainId);
+        if (rendered == null) {
+          error(route, start, req, String.format("Train with ID %s was not found", trainId), NOT_FOUND);
+        } else if (rendered.matches(req.headers().get("If-None-Match"))) {
+          req.response().putHeader("ETag", rendered.etag()).setStatusCode(NOT_MODIFIED);
+          end(route, start, req, null);
+        } else {
+          respondWith(route, start, req, rendered);
+        }
+      }
+    });
+
+    /*
+    Follow the changes to a train's reservations as they happen, as server-sent events:
+    http://localhost:9081/changes/express_2000
+
+    The first event is the whole train, then there's an event for every reservation and reset:
+    id: kx2f1c3a-18
+    event: reserved
+    data: {"version":18,"seats":["1A","2A"],"booking_reference":"75bcd15"}
+
+    A client that reconnects with the last id it saw in a Last-Event-ID header (or ?since=) is
+    only sent what it missed, or the whole train again if that can't be worked out.
+    */
+    rm.get("/changes/:trainId", new Handler<HttpServerRequest>() {
+      private final Metrics.Route route = metrics.route("/changes");
+
+      public void handle(HttpServerRequest req) {
+        final long start = System.nanoTime();
+        String trainId = req.params().get("trainId");
+        if (inventory.has(trainId)) {
+          changeFeed.stream(req, inventory.train(trainId));
+          recordResponse(route, start, req, 0, null);
+        } else {
+          req.response().putHeader("Content-Type", "application/json");
+          error(route, start, req, String.format("Train with ID %s was not found", trainId), NOT_FOUND);
+        }
+      }
+    });
+
+    /*
+    Find seats to reserve without fetching the whole train, e.g. 3 free seats in the same coach:
+    http://localhost:9081/availability/express_2000?count=3&same_coach=true
+
+    count defaults to 1 and same_coach to false. The response says how many seats are free in
+    total, not counting held ones, and suggests seats to book, or an empty list if the train
+    can't fit that many:
+    {"train_id": "express_2000", "free_seats": 32, "seats": ["1A", "2A", "3A"]}
+    */
+    rm.get("/availability/:trainId", new Handler<HttpServerRequest>() {
+      private final Metrics.Route route = metrics.route("/availability");
+
       public void handle(HttpServerRequest req) {
+        final long start = System.nanoTime();
         String trainId = req.params().get("trainId");
-        container.logger().warn("Handling a request for /data_for_train/" + trainId);
         req.response().putHeader("Content-Type", "application/json");
-        if (data.has(trainId)) {
-          req.response().end(prettyJsonFrom(data.get(trainId)));
+        int count;
+        try {
+          String countParam = req.params().get("count");
+          count = countParam == null ? 1 : Integer.parseInt(countParam);
+        } catch (NumberFormatException e) {
+          count = 0;
+        }
+
+        if (count < 1) {
+          error(route, start, req, String.format("count should be a positive number, not %s", req.params().get("count")), BAD_REQUEST);
+        } else if (inventory.has(trainId)) {
+          boolean sameCoach = Boolean.parseBoolean(req.params().get("same_coach"));
+          end(route, start, req, new Buffer(jsonOutput.render(Availability.of(inventory.train(trainId), count, sameCoach))));
         } else {
-          error(req.response(), String.format("Train with ID %s was not found", trainId), NOT_FOUND);
+          error(route, start, req, String.format("Train with ID %s was not found", trainId), NOT_FOUND);
+        }
+      }
+    });
+
+    /*
+    See how full a train is, overall and coach by coach:
+    http://localhost:9081/occupancy/express_2000
+    {"train_id": "express_2000", "seats": 16, "booked": 4, "held": 2, "occupancy": 25.0,
+     "coaches": [{"coach": "A", "seats": 4, "booked": 4, "held": 0, "occupancy": 100.0}, ...]}
+
+    Held seats aren't booked, so occupancy leaves them out, but they are counted in held.
+    Or every train at once, without the coaches:
+    http://localhost:9081/occupancy
+    {"trains": [{"train_id": "express_2000", "seats": 16, "booked": 4, "held": 2, "occupancy": 25.0}, ...]}
+    */
+    rm.get("/occupancy", new Handler<HttpServerRequest>() {
+      private final Metrics.Route route = metrics.route("/occupancy");
+
+      public void handle(HttpServerRequest req) {
+        final long start = System.nanoTime();
+        req.response().putHeader("Content-Type", "application/json");
+        end(route, start, req, new Buffer(jsonOutput.render(Occupancy.of(inventory))));
+      }
+    });
+
+    rm.get("/occupancy/:trainId", new Handler<HttpServerRequest>() {
+      private final Metrics.Route route = metrics.route("/occupancy");
+
+      public void handle(HttpServerRequest req) {
+        final long start = System.nanoTime();
+        String trainId = req.params().get("trainId");
+        req.response().putHeader("Content-Type", "application/json");
+        if (inventory.has(trainId)) {
+          end(route, start, req, new Buffer(jsonOutput.render(Occupancy.of(inventory.train(trainId)))));
+        } else {
+          error(route, start, req, String.format("Train with ID %s was not found", trainId), NOT_FOUND);
+        }
+      }
+    });
+
+    /*
+    Find trains that can still take a party, e.g. 4 people who want to sit in the same coach:
+    http://localhost:9081/search?count=4&same_coach=true
+
+    same_coach defaults to false. Held seats aren't free. Trains with the fewest seats to spare
+    come first, up to limit of them (100 by default):
+    {"trains": [{"train_id": "local_1000", "free_seats": 6, "most_free_in_a_coach": 4}]}
+    */
+    rm.get("/search", new Handler<HttpServerRequest>() {
+      private final Metrics.Route route = metrics.route("/search");
+
+      public void handle(HttpServerRequest req) {
+        final long start = System.nanoTime();
+        req.response().putHeader("Content-Type", "application/json");
+        int count;
+        int limit;
+        try {
+          String countParam = req.params().get("count");
+          String limitParam = req.params().get("limit");
+          count = countParam == null ? 1 : Integer.parseInt(countParam);
+          limit = limitParam == null ? SEARCH_LIMIT : Integer.parseInt(limitParam);
+        } catch (NumberFormatException e) {
+          count = limit = 0;
+        }
+
+        if (count < 1 || limit < 1) {
+          error(route, start, req, String.format("count and limit should be positive numbers, not %s and %s", req.params().get("count"), req.params().get("limit")), BAD_REQUEST);
+        } else {
+          boolean sameCoach = Boolean.parseBoolean(req.params().get("same_coach"));
+          end(route, start, req, new Buffer(jsonOutput.render(capacityIndex.search(count, sameCoach, limit))));
         }
       }
     });
@@ -63,10 +231,52 @@ public class TrainDataService extends Verticle {
     '["1A", "2A"]'
     The other two fields are ordinary strings. Note the server will prevent you
     from booking a seat that is already reserved with another booking reference.
+
+    Or send the same three fields as a json object, with Content-Type: application/json
+    {"train_id": "express_2000", "seats": ["1A", "2A"], "booking_reference": "75bcd15"}
+
+    To only reserve the seats if the train hasn't changed since you chose them, send the ETag you
+    got with the train in an If-Match header. If it has changed you'll get a 412, and nothing is
+    reserved. The response has the train's ETag now and what has changed since, so you can bring
+    your copy up to date and choose again without fetching the whole train:
+    {"error": "express_2000 has changed since version 17", "version": 18,
+     "changes": [{"version": 18, "seats": ["1A"], "booking_reference": "75bcd15", "event": "reserved"}]}
+    The changes are left out if they're no longer known, e.g. after a restart.
     */
     rm.post("/reserve", new Handler<HttpServerRequest>() {
+      private final Metrics.Route route = metrics.route("/reserve");
+
       public void handle(final HttpServerRequest req) {
-        container.logger().warn("Handling a request for /reserve");
+        final long start = System.nanoTime();
+        String contentType = req.headers().get("Content-Type");
+        if (contentType != null && contentType.startsWith("application/json")) {
+          req.bodyHandler(new Handler<Buffer>() {
+            public void handle(Buffer body) {
+              req.response().putHeader("Content-Type", "application/json");
+              JsonElement attrs;
+              try {
+                attrs = new JsonParser().parse(body.toString());
+              } catch (JsonParseException e) {
+                attrs = null;
+              }
+              if (attrs == null || !attrs.isJsonObject()) {
+                error(route, start, req, "The request body should be a json object with train_id, seats and booking_reference", BAD_REQUEST);
+                return;
+              }
+
+              JsonObject reservation = attrs.getAsJsonObject();
+              String trainId = ReservationBatch.stringFrom(reservation.get("train_id"));
+              List<String> seats = ReservationBatch.seatIdsFrom(reservation.get("seats"));
+              String bookingRef = ReservationBatch.stringFrom(reservation.get("booking_reference"));
+              if (trainId == null || seats == null || bookingRef == null) {
+                error(route, start, req, String.format("One or more request attributes missing: [train_id=%s, seats=%s, booking_reference=%s]", trainId, reservation.get("seats"), bookingRef), BAD_REQUEST);
+                return;
+              }
+              reserve(route, start, req, trainId, seats, bookingRef);
+            }
+          });
+          return;
+        }
 
         req.expectMultiPart(true).endHandler(new VoidHandler() {
           public void handle() {
@@ -80,45 +290,161 @@ public class TrainDataService extends Verticle {
 
               // Validate the request
               if (emptyOrNull(trainId, seatsJson, bookingRef)) {
-                error(req.response(), String.format("One or more request attributes missing: [train_id=%s, seats=%s, booking_reference=%s]", trainId, seatsJson, bookingRef), BAD_REQUEST);
-                return;
-              } else if (!data.has(trainId)) {
-                error(req.response(), String.format("Train with ID %s was not found", trainId), NOT_FOUND);
+                error(route, start, req, String.format("One or more request attributes missing: [train_id=%s, seats=%s, booking_reference=%s]", trainId, seatsJson, bookingRef), BAD_REQUEST);
                 return;
               }
+              reserve(route, start, req, trainId, seatIdsFrom(seatsJson), bookingRef);
+            } catch (IllegalStateException e) {
+              // This is a difficult error to diagnose from the client otherwise
+              error(route, start, req, "No multi-part form attributes supplied in the request body", BAD_REQUEST);
+            }
+          }
+        });
+      }
+    });
 
+    /*
+    To make many reservations at once, POST a json list of them to this url:
+    http://localhost:9081/reserve_batch
+    with each reservation given as an object with the same three fields as above, e.g.
+    [{"train_id": "express_2000", "seats": ["1A", "2A"], "booking_reference": "75bcd15"},
+     {"train_id": "local_1000", "seats": ["3B"], "booking_reference": "75bcd16"}]
+    The reservations for each train are all made, in the order given, or none of them are if
+    any one can't be, with the same rules as a single reservation. Each train's reservations
+    succeed or fail apart from the other trains'. The response has a result for each of them:
+    {"results": [
+      {"train_id": "express_2000", "booking_reference": "75bcd15", "status": 200},
+      {"train_id": "local_1000", "booking_reference": "75bcd16", "status": 409, "error": "3B on local_1000 is already booked with reference:  75bcd16"}
+    ]}
+    */
+    rm.post("/reserve_batch", new Handler<HttpServerRequest>() {
+      private final Metrics.Route route = metrics.route("/reserve_batch");
 
-              JsonObject trainData = data.get(trainId).getAsJsonObject();
-              JsonArray seats = new JsonParser().parse(seatsJson).getAsJsonArray();
-
-              // Validate the reservation details
-              Iterator<JsonElement> seatsIterator = seats.iterator();
-              while (seatsIterator.hasNext()) {
-                String seat = seatsIterator.next().getAsString();
-                if (trainData.getAsJsonObject("seats").has(seat)) {
-                  String existingReservation = trainData.getAsJsonObject("seats").getAsJsonObject(seat).get("booking_reference").getAsString();
-                  if (!"".equals(existingReservation) && !(existingReservation.equals(bookingRef))) {
-                    error(req.response(), String.format("%s on %s is already booked with reference:  %s", seat, trainId, bookingRef), CONFLICT);
-                    return;
-                  }
-                } else {
-                  error(req.response(), String.format("seat not found %s", seat), NOT_FOUND);
-                  return;
-                }
+      public void handle(final HttpServerRequest req) {
+        final long start = System.nanoTime();
+        req.bodyHandler(new Handler<Buffer>() {
+          public void handle(Buffer body) {
+            req.response().putHeader("Content-Type", "application/json");
+            JsonElement entries;
+            try {
+              entries = new JsonParser().parse(body.toString());
+            } catch (JsonParseException e) {
+              entries = null;
+            }
+            if (entries == null || !entries.isJsonArray()) {
+              error(route, start, req, "The request body should be a json list of reservations", BAD_REQUEST);
+              return;
+            }
+
+            final JsonObject results = ReservationBatch.reserve(inventory, entries.getAsJsonArray());
+            whenRecorded(route, start, req, new VoidHandler() {
+              public void handle() {
+                end(route, start, req, new Buffer(jsonOutput.render(results)));
               }
+            });
+          }
+        });
+      }
+    });
+
+    /*
+    Seats can be held for a while before they are booked, so nobody else gets them while the
+    customer gets a booking reference and pays. POST the seats to hold as json to
+    http://localhost:9081/hold
+    e.g. {"train_id": "express_2000", "seats": ["1A", "2A"]}
+    Either every seat is held or none are, with the same errors as a reservation. The response says
+    which hold they're in and for how many more seconds:
+    {"hold_id": "17", "train_id": "express_2000", "seats": ["1A", "2A"], "expires_in": 300}
+    Until then the seats can't be reserved or held by anyone else. Book them by POSTing
+    {"hold_id": "17", "booking_reference": "75bcd15"} to http://localhost:9081/confirm
+    which answers like a reservation, or give them up by POSTing {"hold_id": "17"} to
+    http://localhost:9081/release
+    Once a hold has expired, confirming or releasing it is a 404 and its seats are free again.
+    */
+    rm.post("/hold", new Handler<HttpServerRequest>() {
+      private final Metrics.Route route = metrics.route("/hold");
+
+      public void handle(final HttpServerRequest req) {
+        final long start = System.nanoTime();
+        req.bodyHandler(new Handler<Buffer>() {
+          public void handle(Buffer body) {
+            req.response().putHeader("Content-Type", "application/json");
+            JsonObject attrs = jsonObjectFrom(body);
+            String trainId = attrs == null ? null : ReservationBatch.stringFrom(attrs.get("train_id"));
+            List<String> seats = attrs == null ? null : ReservationBatch.seatIdsFrom(attrs.get("seats"));
+            if (trainId == null || seats == null) {
+              error(route, start, req, "The request body should be a json object with train_id and seats", BAD_REQUEST);
+              return;
+            }
+
+            Reservation held = handlers.hold(trainId, seats);
+            if (held.outcome() != Reservation.Outcome.HELD) {
+              error(route, start, req, held.error(), held.status());
+              return;
+            }
+            JsonObject hold = new JsonObject();
+            hold.addProperty("hold_id", held.holdId());
+            hold.addProperty("train_id", trainId);
+            JsonArray heldSeats = new JsonArray();
+            for (String seat : seats) {
+              heldSeats.add(new JsonPrimitive(seat));
+            }
+            hold.add("seats", heldSeats);
+            hold.addProperty("expires_in", shared.holds.holdMillis() / 1000);
+            end(route, start, req, new Buffer(jsonOutput.render(hold)));
+          }
+        });
+      }
+    });
+
+    rm.post("/confirm", new Handler<HttpServerRequest>() {
+      private final Metrics.Route route = metrics.route("/confirm");
 
-              // Update the reservation data
-              seatsIterator = seats.iterator();
-              while (seatsIterator.hasNext()) {
-                String seat = seatsIterator.next().getAsString();
-                trainData.getAsJsonObject("seats").getAsJsonObject(seat).addProperty("booking_reference", bookingRef);
+      public void handle(final HttpServerRequest req) {
+        final long start = System.nanoTime();
+        req.bodyHandler(new Handler<Buffer>() {
+          public void handle(Buffer body) {
+            req.response().putHeader("Content-Type", "application/json");
+            JsonObject attrs = jsonObjectFrom(body);
+            String holdId = attrs == null ? null : ReservationBatch.stringFrom(attrs.get("hold_id"));
+            String bookingRef = attrs == null ? null : ReservationBatch.stringFrom(attrs.get("booking_reference"));
+            if (holdId == null || bookingRef == null) {
+              error(route, start, req, "The request body should be a json object with hold_id and booking_reference", BAD_REQUEST);
+              return;
+            }
+            handlers.confirm(holdId, bookingRef, new Handler<TrainDataHandlers.Result>() {
+              public void handle(TrainDataHandlers.Result result) {
+                respondWith(route, start, req, result);
               }
+            });
+          }
+        });
+      }
+    });
 
-              req.response().end(prettyJsonFrom(data.get(trainId)));
-            } catch (IllegalStateException e) {
-              // This is a difficult error to diagnose from the client otherwise
-              error(req.response(), "No multi-part form attributes supplied in the request body", BAD_REQUEST);
+    rm.post("/release", new Handler<HttpServerRequest>() {
+      private final Metrics.Route route = metrics.route("/release");
+
+      public void handle(final HttpServerRequest req) {
+        final long start = System.nanoTime();
+        req.bodyHandler(new Handler<Buffer>() {
+          public void handle(Buffer body) {
+            req.response().putHeader("Content-Type", "application/json");
+            JsonObject attrs = jsonObjectFrom(body);
+            String holdId = attrs == null ? null : ReservationBatch.stringFrom(attrs.get("hold_id"));
+            if (holdId == null) {
+              error(route, start, req, "The request body should be a json object with hold_id", BAD_REQUEST);
+              return;
+            }
+            if (!handlers.release(holdId)) {
+              Reservation notFound = Reservation.holdNotFound(holdId);
+              error(route, start, req, notFound.error(), notFound.status());
+              return;
             }
+            JsonObject released = new JsonObject();
+            released.addProperty("hold_id", holdId);
+            released.addProperty("released", true);
+            end(route, start, req, new Buffer(jsonOutput.render(released)));
           }
         });
       }
@@ -129,53 +455,279 @@ public class TrainDataService extends Verticle {
     http://localhost:9081/reset/express_2000
     */
     rm.get("/reset/:trainId", new Handler<HttpServerRequest>() {
-      public void handle(HttpServerRequest req) {
+      private final Metrics.Route route = metrics.route("/reset");
+
+      public void handle(final HttpServerRequest req) {
+        final long start = System.nanoTime();
         String trainId = req.params().get("trainId");
-        container.logger().warn("Handling a request for /reset/" + trainId);
         req.response().putHeader("Content-Type", "application/json");
-        if (data.has(trainId)) {
-          JsonObject trainData = data.get(trainId).getAsJsonObject();
-
-          for (Map.Entry<String, JsonElement> entry : trainData.getAsJsonObject("seats").entrySet()) {
-            String seat = entry.getKey();
-            trainData.getAsJsonObject("seats").getAsJsonObject(seat).addProperty("booking_reference", "");
+        handlers.reset(trainId, new Handler<TrainDataHandlers.Result>() {
+          public void handle(TrainDataHandlers.Result result) {
+            respondWith(route, start, req, result);
           }
+        });
+      }
+    });
 
-          req.response().end(prettyJsonFrom(data.get(trainId)));
-        } else {
-          error(req.response(), String.format("Train with ID %s was not found", trainId), NOT_FOUND);
-        }
+    /*
+    How the service is doing, in the Prometheus text format:
+    http://localhost:9081/metrics
+    Latency histograms, counts of responses by status and response bytes for each route,
+    and how many seats have been reserved.
+    */
+    rm.get("/metrics", new Handler<HttpServerRequest>() {
+      public void handle(HttpServerRequest req) {
+        req.response().putHeader("Content-Type", "text/plain; version=0.0.4");
+        req.response().end(metrics.render());
       }
     });
 
     vertx.createHttpServer().requestHandler(rm).listen(9081);
+
+    /*
+    Reservations can also be made over a plain TCP connection with a compact binary protocol,
+    see BinaryReservations, on the port given as "binary_port" in the config.
+    */
+    Number binaryPort = container.config().getNumber("binary_port");
+    if (binaryPort != null) {
+      vertx.createNetServer().connectHandler(new BinaryReservations(handlers, metrics.route("binary_reserve"))).listen(binaryPort.intValue());
+    }
+
+    /*
+    Verticles deployed alongside this one can get, reserve and reset trains over the event bus,
+    without going through HTTP, see TrainDataHandlers.
+    */
+    handlers.register(vertx.eventBus(), metrics);
   }
 
+  /**
+   * Reserves the seats and answers with the train once the reservation is recorded, however the request was
+   * sent. With an If-Match header the seats are only reserved if the train is still at that ETag's version.
+   */
+  private void reserve(final Metrics.Route route, final long start, final HttpServerRequest req, String trainId, List<String> seats, String bookingRef) {
+    String ifMatch = req.headers().get("If-Match");
+    long ifVersion = ifMatch == null || ifMatch.trim().equals("*") ? TrainDataHandlers.ANY_VERSION : shared.renderedTrains.versionOf(ifMatch.trim());
+    shared.handlers.reserve(trainId, seats, bookingRef, ifVersion, new Handler<TrainDataHandlers.Result>() {
+      public void handle(TrainDataHandlers.Result result) {
+        respondWith(route, start, req, result);
+      }
+    });
+  }
+
+  static List<String> seatIdsFrom(String seatsJson) {
+    List<String> seats = new ArrayList<>();
+    for (JsonElement seat : new JsonParser().parse(seatsJson).getAsJsonArray()) {
+      seats.add(seat.getAsString());
+    }
+    return seats;
+  }
 
-  private static boolean emptyOrNull(String... things) {
+
+  /** The body parsed as a json object, or null if it isn't one */
+  private static JsonObject jsonObjectFrom(Buffer body) {
+    try {
+      JsonElement parsed = new JsonParser().parse(body.toString());
+      return parsed != null && parsed.isJsonObject() ? parsed.getAsJsonObject() : null;
+    } catch (JsonParseException e) {
+      return null;
+    }
+  }
+
+  static boolean emptyOrNull(String... things) {
     for (String thing : things) {
       if (thing == null || thing.trim().equals("")) return true;
     }
     return false;
   }
 
-  private void error(HttpServerResponse resp, String message, int statusCode) {
-    container.logger().error("ERROR: "+ message + " [" + statusCode + "]");
-    resp.setStatusCode(statusCode);
+  private void error(Metrics.Route route, long start, HttpServerRequest req, String message, int statusCode) {
+    req.response().setStatusCode(statusCode);
     JsonObject error = new JsonObject();
     error.addProperty("error", message);
-    resp.end(prettyJsonFrom(error));
+    Buffer body = new Buffer(jsonOutput.render(error));
+    recordResponse(route, start, req, body.length(), message);
+    req.response().end(body);
+  }
+
+  /** Answers with the train if the reservation or reset went through, or with why it didn't */
+  private void respondWith(Metrics.Route route, long start, HttpServerRequest req, TrainDataHandlers.Result result) {
+    if (result.status() == PRECONDITION_FAILED) {
+      req.response().setStatusCode(PRECONDITION_FAILED).putHeader("ETag", shared.renderedTrains.etag(result.version()));
+      JsonObject changed = new JsonObject();
+      changed.addProperty("error", result.error());
+      changed.addProperty("version", result.version());
+      if (result.changes() != null) changed.add("changes", new JsonParser().parse(result.changes()));
+      end(route, start, req, new Buffer(jsonOutput.render(changed)));
+    } else if (result.error() != null) {
+      error(route, start, req, result.error(), result.status());
+    } else {
+      respondWith(route, start, req, shared.renderedTrains.get(result.train()));
+    }
+  }
+
+  private void respondWith(Metrics.Route route, long start, HttpServerRequest req, RenderedTrains.Rendered rendered) {
+    req.response().putHeader("ETag", rendered.etag());
+    end(route, start, req, rendered.body());
+  }
+
+  /** Sends the response, recording how long it took since the request started being handled */
+  private void end(Metrics.Route route, long start, HttpServerRequest req, Buffer body) {
+    recordResponse(route, start, req, body == null ? 0 : body.length(), null);
+    if (body == null) {
+      req.response().end();
+    } else {
+      req.response().end(body);
+    }
+  }
+
+  /** error is why the request failed, for the access log, or null if it didn't */
+  private void recordResponse(Metrics.Route route, long start, HttpServerRequest req, int bodyBytes, String error) {
+    long nanos = System.nanoTime() - start;
+    int status = req.response().getStatusCode();
+    route.record(nanos, status, bodyBytes);
+    shared.accessLog.record(req, status, nanos, bodyBytes, error);
   }
 
-  private static String prettyJsonFrom(JsonElement data) {
-    return new GsonBuilder().setPrettyPrinting().create().toJson(data);
+  /**
+   * Runs the handler once the changes made so far are in the reservation journal on disk, so a client
+   * is never told about a reservation that would be lost if the service stopped. Without a journal
+   * there is nothing to wait for.
+   */
+  private void whenRecorded(final Metrics.Route route, final long start, final HttpServerRequest req, final Handler<Void> then) {
+    if (shared.journal == null) {
+      then.handle(null);
+      return;
+    }
+    shared.journal.whenDurable(new Handler<AsyncResult<Void>>() {
+      public void handle(AsyncResult<Void> result) {
+        if (result.succeeded()) {
+          then.handle(null);
+        } else {
+          error(route, start, req, "The change was made but couldn't be recorded, so it may be lost if the service restarts", INTERNAL_SERVER_ERROR);
+        }
+      }
+    });
   }
 
-  private JsonObject readTrainData() {
+  @Override
+  public void stop() {
+    ConcurrentMap<String, SharedTrainData> sharedData = vertx.sharedData().getMap(TrainDataService.class.getName());
+    synchronized (sharedData) {
+      if (--shared.users == 0) {
+        sharedData.remove(TRAIN_DATA);
+        vertx.cancelTimer(shared.holdTimer);
+        if (shared.journal != null) shared.journal.close();
+        shared.accessLog.close();
+      }
+    }
+  }
+
+  /**
+   * Every instance of the verticle serves the same trains, so the first one to start loads them
+   * and leaves them in shared data for the rest. The last one to stop takes them away again,
+   * so a redeploy starts afresh from the train data and the journal.
+   */
+  private SharedTrainData sharedTrainData() {
+    ConcurrentMap<String, SharedTrainData> sharedData = vertx.sharedData().getMap(TrainDataService.class.getName());
+    synchronized (sharedData) {
+      SharedTrainData shared = sharedData.get(TRAIN_DATA);
+      if (shared == null) {
+        InventoryStore inventory = readTrainData();
+        ReservationJournal journal = openJournal(inventory);
+        ChangeFeed changeFeed = new ChangeFeed(vertx, FORMAT);
+        inventory.addListener(changeFeed);
+        Metrics metrics = new Metrics("trains_data");
+        inventory.addListener(metrics);
+        RenderedTrains renderedTrains = new RenderedTrains(FORMAT, jsonOutput);
+        final TimerWheel holdWheel = new TimerWheel(HOLD_TICK_MILLIS, HOLD_WHEEL_SLOTS);
+        SeatHolds holds = new SeatHolds(inventory, holdWheel, container.config().getLong("hold_seconds", HOLD_SECONDS) * 1000);
+        shared = new SharedTrainData(inventory, renderedTrains, new CapacityIndex(inventory), changeFeed, metrics, openAccessLog(), journal, holds,
+            new TrainDataHandlers(inventory, renderedTrains, changeFeed, journal, holds));
+        // One timer expires every hold, however many there are
+        shared.holdTimer = vertx.setPeriodic(HOLD_TICK_MILLIS, new Handler<Long>() {
+          public void handle(Long timerId) {
+            holdWheel.advance();
+          }
+        });
+        sharedData.put(TRAIN_DATA, shared);
+      }
+      shared.users++;
+      return shared;
+    }
+  }
+
+  private static final class SharedTrainData implements Shareable {
+    private final InventoryStore inventory;
+    private final RenderedTrains renderedTrains;
+    private final CapacityIndex capacityIndex;
+    private final ChangeFeed changeFeed;
+    private final Metrics metrics;
+    private final AccessLog accessLog;
+    private final ReservationJournal journal;
+    private final SeatHolds holds;
+    private final TrainDataHandlers handlers;
+    private long holdTimer;
+    private int users;
+
+    private SharedTrainData(InventoryStore inventory, RenderedTrains renderedTrains, CapacityIndex capacityIndex, ChangeFeed changeFeed, Metrics metrics, AccessLog accessLog, ReservationJournal journal,
+                            SeatHolds holds, TrainDataHandlers handlers) {
+      this.inventory = inventory;
+      this.renderedTrains = renderedTrains;
+      this.capacityIndex = capacityIndex;
+      this.changeFeed = changeFeed;
+      this.metrics = metrics;
+      this.accessLog = accessLog;
+      this.journal = journal;
+      this.holds = holds;
+      this.handlers = handlers;
+    }
+  }
+
+  /**
+   * Reservations are only kept across restarts when "journal_dir" is configured. "snapshot_every"
+   * sets how many changes are journalled between snapshots.
+   */
+  private ReservationJournal openJournal(InventoryStore inventory) {
+    String dir = container.config().getString("journal_dir");
+    if (dir == null) return null;
+    try {
+      return ReservationJournal.open(new File(dir), inventory, container.config().getLong("snapshot_every", SNAPSHOT_EVERY), vertx, container.logger());
+    } catch (IOException e) {
+      container.logger().fatal("Couldn't read the reservation journal in " + dir, e);
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private AccessLog openAccessLog() {
+    try {
+      return AccessLog.open(container.config(), container.logger());
+    } catch (IOException e) {
+      container.logger().fatal("Couldn't open the access log " + container.config().getString("access_log_file"), e);
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Loads the binary copy of the train data if there is one that's up to date, see {@link BinaryTrainData}.
+   * Otherwise the JSON is indexed, and each train is read from it when it's first needed.
+   */
+  private InventoryStore readTrainData() {
+    File binary = new File(BINARY_TRAIN_DATA);
+    if (binary.exists()) {
+      if (binary.lastModified() < new File(TRAIN_DATA).lastModified()) {
+        container.logger().warn(BINARY_TRAIN_DATA + " is older than " + TRAIN_DATA + " so is being ignored, convert it again to use it");
+      } else {
+        try {
+          return BinaryTrainData.read(binary);
+        } catch (IOException e) {
+          container.logger().error("Couldn't read " + BINARY_TRAIN_DATA + ", reading " + TRAIN_DATA + " instead", e);
+        }
+      }
+    }
+
     try {
-      JsonParser jsonParser = new JsonParser();
-      return jsonParser.parse(new FileReader("src/main/resources/trains.json")).getAsJsonObject();
-    } catch (FileNotFoundException e) {
+      return InventoryStore.open(new File(TRAIN_DATA), FORMAT);
+    } catch (IOException e) {
       container.logger().fatal("Couldn't read in JSON data for trains", e);
     }
     return null;
@@ -0,0 +1,463 @@
+package trains.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The seats of one train and who they are booked to, held in dense per-coach arrays rather than a JSON tree.
+ *
+ * A seat is addressed by an int handle packing the coach index into the high 16 bits and the position of
+ * the seat within its coach into the low 16 bits (see {@link #seat(int, int)}). Each seat holds the interned
+ * id of its booking reference, 0 when it is free, and each coach keeps a bitset of its free seats and a count
+ * of them, so questions about how many seats are free cost a lookup per coach rather than a look at every seat.
+ *
+ * Every change to the bookings bumps the train's version, so anything derived from the bookings
+ * can tell whether it is stale. Re-booking a seat with the reference it already has is not a change.
+ *
+ * A free seat can also be held for a while without being booked, see {@link SeatHolds}. Each seat keeps
+ * the id of the hold on it, 0 when there is none, and each coach a count of its held seats. A held seat is
+ * still free, as nothing is booked on it, but it isn't available: it can't be reserved or held again, it
+ * isn't counted by {@link #availableSeatCount} and isn't suggested by {@link #findFreeSeats}. Holds don't
+ * change the version, but the listener is told about them.
+ *
+ * A train is shared by every instance of the service and guards its bookings with its own monitor.
+ * Reservations and resets lock it themselves; anything reading several seats that needs a consistent
+ * view, such as rendering the train, should hold it while it reads. Changes are passed on to the
+ * train's {@link InventoryListener} before the monitor is released.
+ */
+public final class TrainInventory {
+
+  public static final int NO_SEAT = -1;
+  public static final int NO_HOLD = 0;
+
+  private final String trainId;
+  private final BookingReferences references;
+  private final String[] coaches;
+  private final String[][] seatNumbers;
+  private final int[][] bookings;
+  private final int[][] holds;
+  private final int[] heldCounts;
+  private final BitSet[] freeSeats;
+  private final int[] freeCounts;
+  private final int seatTotal;
+  private volatile int freeTotal;
+  private volatile int heldTotal;
+  private final SeatIndex seatIndex;
+  private final InventoryListener listener;
+  private long version;
+
+  TrainInventory(String trainId, BookingReferences references, InventoryListener listener, String[] coaches, String[][] seatNumbers, int[][] bookings) {
+    this.trainId = trainId;
+    this.references = references;
+    this.listener = listener;
+    this.coaches = coaches;
+    this.seatNumbers = seatNumbers;
+    this.bookings = bookings;
+    this.holds = new int[coaches.length][];
+    this.heldCounts = new int[coaches.length];
+    this.freeSeats = new BitSet[coaches.length];
+    this.freeCounts = new int[coaches.length];
+    this.seatIndex = new SeatIndex(coaches, seatNumbers);
+    int total = 0;
+    int free = 0;
+    for (int c = 0; c < coaches.length; c++) {
+      holds[c] = new int[bookings[c].length];
+      freeSeats[c] = new BitSet(bookings[c].length);
+      for (int s = 0; s < bookings[c].length; s++) {
+        if (bookings[c][s] == BookingReferences.NONE) freeSeats[c].set(s);
+      }
+      freeCounts[c] = freeSeats[c].cardinality();
+      total += bookings[c].length;
+      free += freeCounts[c];
+    }
+    this.seatTotal = total;
+    this.freeTotal = free;
+  }
+
+  public static int seat(int coach, int index) {
+    return coach << 16 | index;
+  }
+
+  public static int coachOf(int seat) {
+    return seat >>> 16;
+  }
+
+  public static int indexOf(int seat) {
+    return seat & 0xFFFF;
+  }
+
+  public String trainId() {
+    return trainId;
+  }
+
+  public synchronized long version() {
+    return version;
+  }
+
+  public int coachCount() {
+    return coaches.length;
+  }
+
+  public String coach(int coach) {
+    return coaches[coach];
+  }
+
+  public int seatCount(int coach) {
+    return bookings[coach].length;
+  }
+
+  public String seatNumber(int seat) {
+    return seatNumbers[coachOf(seat)][indexOf(seat)];
+  }
+
+  public String seatId(int seat) {
+    return seatNumber(seat) + coaches[coachOf(seat)];
+  }
+
+  public synchronized String bookingReference(int seat) {
+    return references.reference(bookings[coachOf(seat)][indexOf(seat)]);
+  }
+
+  public synchronized boolean isFree(int seat) {
+    return freeSeats[coachOf(seat)].get(indexOf(seat));
+  }
+
+  public synchronized boolean isHeld(int seat) {
+    return holds[coachOf(seat)][indexOf(seat)] != NO_HOLD;
+  }
+
+  public synchronized int freeSeatCount(int coach) {
+    return freeCounts[coach];
+  }
+
+  public int seatCount() {
+    return seatTotal;
+  }
+
+  /** Doesn't need the train's monitor, so it can be polled as often as needed without holding up bookings */
+  public int freeSeatCount() {
+    return freeTotal;
+  }
+
+  public synchronized int mostFreeSeatsInACoach() {
+    int most = 0;
+    for (int count : freeCounts) {
+      most = Math.max(most, count);
+    }
+    return most;
+  }
+
+  public synchronized int heldSeatCount(int coach) {
+    return heldCounts[coach];
+  }
+
+  /** Doesn't need the train's monitor, like {@link #freeSeatCount()} */
+  public int heldSeatCount() {
+    return heldTotal;
+  }
+
+  /** Seats in the coach that can be reserved, i.e. that are free and not held */
+  public synchronized int availableSeatCount(int coach) {
+    return freeCounts[coach] - heldCounts[coach];
+  }
+
+  /** Seats that can be reserved. Only consistent with the other counts while the train's monitor is held */
+  public int availableSeatCount() {
+    return freeTotal - heldTotal;
+  }
+
+  public synchronized int mostAvailableSeatsInACoach() {
+    int most = 0;
+    for (int c = 0; c < coaches.length; c++) {
+      most = Math.max(most, freeCounts[c] - heldCounts[c]);
+    }
+    return most;
+  }
+
+  /**
+   * Handles of the first available seats that make up the count, taking them from the first coach with
+   * enough available seats when they have to be in the same coach, or else from the coaches in order.
+   * Empty if there aren't enough available seats.
+   */
+  public synchronized int[] findFreeSeats(int count, boolean sameCoach) {
+    if (count > availableSeatCount()) return new int[0];
+    int[] seats = new int[count];
+    int found = 0;
+    for (int c = 0; c < coaches.length && found < count; c++) {
+      int available = freeCounts[c] - heldCounts[c];
+      if (sameCoach ? available < count : available == 0) continue;
+      for (int s = freeSeats[c].nextSetBit(0); s >= 0 && found < count; s = freeSeats[c].nextSetBit(s + 1)) {
+        if (holds[c][s] == NO_HOLD) seats[found++] = seat(c, s);
+      }
+    }
+    return found == count ? seats : new int[0];
+  }
+
+  /** The handle of a seat given its id, e.g. "1A", or NO_SEAT */
+  public int findSeat(CharSequence seatId) {
+    return seatIndex.find(seatId);
+  }
+
+  /**
+   * Books every seat to the reference, or none of them if any seat doesn't exist, is already
+   * booked with a different reference or is held. Seats already booked with this reference stay booked.
+   */
+  public synchronized Reservation reserve(List<String> seatIds, String bookingReference) {
+    int[] seats = new int[seatIds.size()];
+    for (int i = 0; i < seats.length; i++) {
+      String seatId = seatIds.get(i);
+      seats[i] = findSeat(seatId);
+      Reservation refused = refusal(seats[i], seatId, bookingReference);
+      if (refused != null) return refused;
+    }
+
+    book(seats, seats.length, bookingReference);
+    return Reservation.reserved(trainId, bookingReference);
+  }
+
+  /**
+   * Makes every one of the reservations, in order, or none of them if any one can't be made, with the same
+   * rules as {@link #reserve}. A seat can't go to two different references in the same call. The result
+   * for each reservation says how it went; when one fails the rest are {@link Reservation#batchFailed}.
+   */
+  synchronized Reservation[] reserveAll(List<List<String>> seatIds, List<String> bookingReferences) {
+    Reservation[] results = new Reservation[seatIds.size()];
+    int[][] seats = new int[results.length][];
+    Map<Integer, String> claimed = new HashMap<>();
+    int failed = -1;
+    for (int r = 0; r < results.length && failed < 0; r++) {
+      String bookingReference = bookingReferences.get(r);
+      seats[r] = new int[seatIds.get(r).size()];
+      for (int i = 0; i < seats[r].length; i++) {
+        String seatId = seatIds.get(r).get(i);
+        seats[r][i] = findSeat(seatId);
+        Reservation refused = refusal(seats[r][i], seatId, bookingReference);
+        String claimedBy = claimed.get(seats[r][i]);
+        if (refused == null && claimedBy != null && !claimedBy.equals(bookingReference)) {
+          refused = Reservation.alreadyBooked(trainId, seatId, bookingReference);
+        }
+        if (refused != null) {
+          results[r] = refused;
+          failed = r;
+          break;
+        }
+      }
+      for (int seat : seats[r]) {
+        claimed.put(seat, bookingReference);
+      }
+    }
+
+    for (int r = 0; r < results.length; r++) {
+      if (failed >= 0) {
+        if (r != failed) results[r] = Reservation.batchFailed(trainId, bookingReferences.get(r));
+      } else {
+        book(seats[r], seats[r].length, bookingReferences.get(r));
+        results[r] = Reservation.reserved(trainId, bookingReferences.get(r));
+      }
+    }
+    return results;
+  }
+
+  /** Why the seat can't be booked to the reference, or null if it can */
+  private Reservation refusal(int seat, String seatId, String bookingReference) {
+    if (seat == NO_SEAT) {
+      return Reservation.seatNotFound(trainId, seatId, bookingReference);
+    } else if (!canBeBookedBy(seat, bookingReference)) {
+      return Reservation.alreadyBooked(trainId, seatId, bookingReference);
+    } else if (isHeld(seat)) {
+      return Reservation.alreadyHeld(trainId, seatId, bookingReference);
+    }
+    return null;
+  }
+
+  /** Holds every seat, or none of them if any is booked or already held */
+  synchronized Reservation hold(int[] seats, int holdId) {
+    for (int seat : seats) {
+      if (!isFree(seat)) {
+        return Reservation.alreadyBooked(trainId, seatId(seat), null);
+      } else if (isHeld(seat)) {
+        return Reservation.alreadyHeld(trainId, seatId(seat), null);
+      }
+    }
+    int marked = 0;
+    for (int seat : seats) {
+      // A seat given twice is only counted once
+      if (holds[coachOf(seat)][indexOf(seat)] == holdId) continue;
+      holds[coachOf(seat)][indexOf(seat)] = holdId;
+      heldCounts[coachOf(seat)]++;
+      marked++;
+    }
+    heldTotal += marked;
+    listener.holdsChanged(this);
+    return Reservation.held(trainId, Integer.toString(holdId));
+  }
+
+  /** Books the held seats to the reference, as long as they are all still held for the hold */
+  synchronized Reservation confirm(int[] seats, int holdId, String bookingReference) {
+    for (int seat : seats) {
+      if (holds[coachOf(seat)][indexOf(seat)] != holdId) return Reservation.holdNotFound(Integer.toString(holdId));
+    }
+    release(seats, holdId);
+    book(seats, seats.length, bookingReference);
+    return Reservation.reserved(trainId, bookingReference);
+  }
+
+  /** Frees the seats that are still held for the hold */
+  synchronized void release(int[] seats, int holdId) {
+    int released = 0;
+    for (int seat : seats) {
+      if (holds[coachOf(seat)][indexOf(seat)] == holdId) {
+        holds[coachOf(seat)][indexOf(seat)] = NO_HOLD;
+        heldCounts[coachOf(seat)]--;
+        released++;
+      }
+    }
+    if (released > 0) {
+      heldTotal -= released;
+      listener.holdsChanged(this);
+    }
+  }
+
+  /**
+   * Books seats to a reference without checking whether they are already booked, e.g. when replaying
+   * changes that were checked when they were first made. Seats this train doesn't have are ignored.
+   * The listener isn't told, as the changes have already been recorded.
+   */
+  synchronized void apply(List<String> seatIds, String bookingReference) {
+    int[] seats = new int[seatIds.size()];
+    int found = 0;
+    for (String seatId : seatIds) {
+      int seat = findSeat(seatId);
+      if (seat != NO_SEAT) seats[found++] = seat;
+    }
+    if (setBookings(seats, found, bookingReference) != null) version++;
+  }
+
+  /** Frees every seat, like {@link #reset()}, without telling the listener */
+  synchronized void applyReset() {
+    if (clear()) version++;
+  }
+
+  /** True if the seat is free or already booked with this reference */
+  private boolean canBeBookedBy(int seat, String bookingReference) {
+    int existing = bookings[coachOf(seat)][indexOf(seat)];
+    return existing == BookingReferences.NONE || existing == references.idOf(bookingReference);
+  }
+
+  private void book(int[] seats, int count, String bookingReference) {
+    int[] changed = setBookings(seats, count, bookingReference);
+    if (changed != null) {
+      version++;
+      listener.reserved(this, changed, bookingReference);
+    }
+  }
+
+  /** The seats whose booking changed, or null if none did */
+  private int[] setBookings(int[] seats, int count, String bookingReference) {
+    int id = references.intern(bookingReference);
+    int[] changed = new int[count];
+    int changes = 0;
+    for (int i = 0; i < count; i++) {
+      int coach = coachOf(seats[i]);
+      int index = indexOf(seats[i]);
+      if (bookings[coach][index] != id) {
+        boolean wasFree = bookings[coach][index] == BookingReferences.NONE;
+        bookings[coach][index] = id;
+        freeSeats[coach].set(index, id == BookingReferences.NONE);
+        if (wasFree != (id == BookingReferences.NONE)) {
+          freeCounts[coach] += wasFree ? -1 : 1;
+          freeTotal += wasFree ? -1 : 1;
+        }
+        changed[changes++] = seats[i];
+      }
+    }
+    return changes > 0 ? Arrays.copyOf(changed, changes) : null;
+  }
+
+  public synchronized void reset() {
+    if (clear()) {
+      version++;
+      listener.reset(this);
+    }
+  }
+
+  /** Frees every seat and drops its holds, returning whether any were booked or held */
+  private boolean clear() {
+    boolean changed = false;
+    for (int c = 0; c < coaches.length; c++) {
+      changed |= freeCounts[c] != bookings[c].length || heldCounts[c] != 0;
+      Arrays.fill(bookings[c], BookingReferences.NONE);
+      Arrays.fill(holds[c], NO_HOLD);
+      heldCounts[c] = 0;
+      freeSeats[c].set(0, bookings[c].length);
+      freeCounts[c] = bookings[c].length;
+    }
+    freeTotal = seatTotal;
+    heldTotal = 0;
+    return changed;
+  }
+
+  /**
+   * Collects seats in the order they are read from the source data, grouping them by coach
+   * in the order each coach is first seen.
+   */
+  public static final class Builder {
+    private final String trainId;
+    private final BookingReferences references;
+    private final List<String> coaches = new ArrayList<>();
+    private final List<List<String>> seatNumbers = new ArrayList<>();
+    private final List<List<String>> bookingReferences = new ArrayList<>();
+
+    public Builder(String trainId, BookingReferences references) {
+      this.trainId = trainId;
+      this.references = references;
+    }
+
+    public Builder seat(String coach, String seatNumber, String bookingReference) {
+      int c = coaches.indexOf(coach);
+      if (c < 0) {
+        c = coaches.size();
+        coaches.add(coach);
+        seatNumbers.add(new ArrayList<String>());
+        bookingReferences.add(new ArrayList<String>());
+      }
+      seatNumbers.get(c).add(seatNumber);
+      bookingReferences.get(c).add(bookingReference);
+      return this;
+    }
+
+    /** How many seats the train will have, its free seats and the most free in any one coach */
+    public int[] seatCounts() {
+      int seats = 0;
+      int free = 0;
+      int mostInACoach = 0;
+      for (List<String> coach : bookingReferences) {
+        int freeInCoach = 0;
+        for (String bookingReference : coach) {
+          if (bookingReference == null || bookingReference.isEmpty()) freeInCoach++;
+        }
+        seats += coach.size();
+        free += freeInCoach;
+        mostInACoach = Math.max(mostInACoach, freeInCoach);
+      }
+      return new int[] {seats, free, mostInACoach};
+    }
+
+    public TrainInventory build(InventoryListener listener) {
+      String[][] numbers = new String[coaches.size()][];
+      int[][] bookings = new int[coaches.size()][];
+      for (int c = 0; c < coaches.size(); c++) {
+        numbers[c] = seatNumbers.get(c).toArray(new String[0]);
+        bookings[c] = new int[numbers[c].length];
+        for (int s = 0; s < numbers[c].length; s++) {
+          bookings[c][s] = references.intern(bookingReferences.get(c).get(s));
+        }
+      }
+      return new TrainInventory(trainId, references, listener, coaches.toArray(new String[0]), numbers, bookings);
+    }
+  }
+}
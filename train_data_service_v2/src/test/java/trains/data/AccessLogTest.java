@@ -0,0 +1,96 @@
+package trains.data;
+
+import org.junit.Test;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AccessLogTest {
+
+  private final StringWriter out = new StringWriter();
+
+  @Test
+  public void aFailedRequestIsLoggedWithWhyItFailed() {
+    AccessLog log = accessLog(AccessLog.Level.INFO, 1);
+    log.record("GET", "/data_for_train/express_2000", 200, 412000, 971, null);
+    log.record("GET", "/data_for_train/UNKNOWN", 404, 38000, 45, "Train with ID UNKNOWN was not found");
+
+    List<String> lines = linesWritten(log);
+
+    assertEquals(2, lines.size());
+    assertTrue(lines.get(0), lines.get(0).endsWith(" INFO GET /data_for_train/express_2000 200 971 412us"));
+    assertTrue(lines.get(1), lines.get(1).endsWith(" WARN GET /data_for_train/UNKNOWN 404 45 38us \"Train with ID UNKNOWN was not found\""));
+  }
+
+  @Test
+  public void onlyFailedRequestsAreLoggedAtWarn() {
+    AccessLog log = accessLog(AccessLog.Level.WARN, 1);
+    log.record("GET", "/data_for_train/express_2000", 200, 412000, 971, null);
+    log.record("POST", "/reserve", 409, 51000, 80, "1A on express_2000 is already booked with reference: 75bcd15");
+
+    List<String> lines = linesWritten(log);
+
+    assertEquals(1, lines.size());
+    assertTrue(lines.get(0), lines.get(0).contains(" WARN POST /reserve 409 "));
+  }
+
+  @Test
+  public void nothingIsLoggedWhenTheLogIsOff() {
+    AccessLog log = accessLog(AccessLog.Level.OFF, 1);
+    log.record("GET", "/data_for_train/UNKNOWN", 404, 38000, 45, "Train with ID UNKNOWN was not found");
+
+    assertEquals(0, linesWritten(log).size());
+  }
+
+  @Test
+  public void successfulRequestsAreSampledButFailedOnesAlwaysLogged() {
+    AccessLog log = accessLog(AccessLog.Level.INFO, 0.25);
+    for (int i = 0; i < 2000; i++) {
+      log.record("GET", "/data_for_train/express_2000", 200, 412000, 971, null);
+      log.record("GET", "/data_for_train/UNKNOWN", 404, 38000, 45, "Train with ID UNKNOWN was not found");
+    }
+
+    int succeeded = 0, failed = 0;
+    for (String line : linesWritten(log)) {
+      if (line.contains(" 200 ")) succeeded++;
+      else failed++;
+    }
+
+    assertEquals(2000, failed);
+    // 500 expected, more than eight standard deviations either side
+    assertTrue("logged " + succeeded, succeeded > 340 && succeeded < 660);
+  }
+
+  @Test
+  public void requestsThatDontFitInAFullRingAreCountedInsteadOfLogged() {
+    AccessLog log = accessLog(AccessLog.Level.INFO, 1);
+    // The writer isn't running yet, so nothing makes room in the ring
+    for (int i = 0; i < 8192 + 10; i++) {
+      log.record("GET", "/data_for_train/" + i, 200, 412000, 971, null);
+    }
+
+    List<String> lines = linesWritten(log);
+
+    assertEquals(8192, lines.size());
+    assertTrue(lines.get(0), lines.get(0).endsWith(" /data_for_train/0 200 971 412us (10 requests not logged, the access log fell behind)"));
+    assertTrue(lines.get(8191), lines.get(8191).endsWith(" /data_for_train/8191 200 971 412us"));
+  }
+
+  private AccessLog accessLog(AccessLog.Level level, double sampleRate) {
+    return new AccessLog(level, sampleRate, out, LoggerFactory.getLogger(AccessLogTest.class));
+  }
+
+  /** Closes the log, which writes out everything recorded so far */
+  private List<String> linesWritten(AccessLog log) {
+    log.start();
+    log.close();
+    String written = out.toString();
+    return written.isEmpty() ? new ArrayList<String>() : Arrays.asList(written.split("\n"));
+  }
+}
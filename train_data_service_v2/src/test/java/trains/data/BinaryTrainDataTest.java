@@ -0,0 +1,88 @@
+package trains.data;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static trains.data.TestTrains.trains;
+
+public class BinaryTrainDataTest {
+
+  private static final TestTrains TRAINS = trains()
+      .train("express_2000", "1A=75bcd15", "2A", "1B=75bcd15")
+      .train("local_1000", "1A", "2A=75bcd16");
+  private static final String COACHES = TRAINS.coachesJson();
+  private static final String SEATS = TRAINS.json();
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void trainsInTheCoachesLayoutComeBackTheSame() throws IOException {
+    assertRoundTrip(COACHES, TrainDataFormat.COACHES);
+  }
+
+  @Test
+  public void trainsInTheSeatsLayoutComeBackTheSame() throws IOException {
+    assertRoundTrip(SEATS, TrainDataFormat.SEATS);
+  }
+
+  @Test
+  public void bothLayoutsConvertToTheSameBinaryTrainData() throws IOException {
+    assertEquals(describe(BinaryTrainData.read(convert(COACHES))), describe(BinaryTrainData.read(convert(SEATS))));
+  }
+
+  @Test
+  public void trainsReadFromBinaryCanBeReserved() throws IOException {
+    InventoryStore store = BinaryTrainData.read(convert(SEATS));
+
+    assertEquals(Reservation.Outcome.RESERVED, store.reserve("express_2000", Arrays.asList("2A"), "75bcd17").outcome());
+    assertEquals(Reservation.Outcome.ALREADY_BOOKED, store.reserve("local_1000", Arrays.asList("2A"), "75bcd17").outcome());
+    assertEquals("75bcd17", store.train("express_2000").bookingReference(store.train("express_2000").findSeat("2A")));
+  }
+
+  @Test
+  public void aFileThatIsntBinaryTrainDataIsRejected() throws IOException {
+    try {
+      BinaryTrainData.read(TestTrains.write(folder, "trains.json", SEATS));
+      fail("JSON shouldn't read as binary train data");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("isn't binary train data"));
+    }
+  }
+
+  private void assertRoundTrip(String json, TrainDataFormat format) throws IOException {
+    InventoryStore original = InventoryStore.open(TestTrains.write(folder, "original.json", json), format);
+    assertEquals(describe(original), describe(BinaryTrainData.read(convert(json))));
+  }
+
+  /** Converts through main, so the layout is worked out the way the convertTrainData task does it */
+  private File convert(String json) throws IOException {
+    File binary = new File(folder.getRoot(), "trains-" + json.hashCode() + ".bin");
+    BinaryTrainData.main(new String[] {TestTrains.write(folder, "trains-" + json.hashCode() + ".json", json).getPath(), binary.getPath()});
+    return binary;
+  }
+
+  /** Every train's seats, as train id, coach, seat number and booking reference */
+  private static List<String> describe(InventoryStore store) {
+    List<String> seats = new ArrayList<>();
+    for (TrainInventory train : store.trains()) {
+      for (int c = 0; c < train.coachCount(); c++) {
+        for (int s = 0; s < train.seatCount(c); s++) {
+          int seat = TrainInventory.seat(c, s);
+          seats.add(train.trainId() + " " + train.coach(c) + " " + train.seatNumber(seat) + " " + train.bookingReference(seat));
+        }
+      }
+    }
+    return seats;
+  }
+}
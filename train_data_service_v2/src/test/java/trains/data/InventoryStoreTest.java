@@ -0,0 +1,92 @@
+package trains.data;
+
+import com.google.gson.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static trains.data.TestTrains.trains;
+
+public class InventoryStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Vertx vertx;
+  private File trainData;
+
+  @Before
+  public void setUp() throws IOException {
+    vertx = VertxFactory.newVertx();
+    trainData = trains().train("express_2000", "1A=75bcd15", "2A", "1B", "2B").train("local_1000", "1A").writeTo(folder);
+  }
+
+  @After
+  public void tearDown() {
+    vertx.stop();
+  }
+
+  @Test
+  public void theFleetsOccupancyIsCountedFromTheTrainDataWithoutLoadingTrains() throws IOException {
+    InventoryStore inventory = InventoryStore.open(trainData, TrainDataFormat.SEATS);
+
+    JsonObject express = Occupancy.of(inventory).getAsJsonArray("trains").get(0).getAsJsonObject();
+
+    assertEquals(4, express.get("seats").getAsInt());
+    assertEquals(1, express.get("booked").getAsInt());
+    assertNull(inventory.loadedTrain("express_2000"));
+    assertNull(inventory.loadedTrain("local_1000"));
+  }
+
+  @Test
+  public void loadedTrainsAreCountedAsTheyAreNow() throws IOException {
+    InventoryStore inventory = InventoryStore.open(trainData, TrainDataFormat.SEATS);
+    inventory.reserve("express_2000", Arrays.asList("1B", "2B"), "75bcd16");
+
+    JsonObject express = Occupancy.of(inventory).getAsJsonArray("trains").get(0).getAsJsonObject();
+
+    assertEquals(3, express.get("booked").getAsInt());
+    assertNull(inventory.loadedTrain("local_1000"));
+  }
+
+  @Test
+  public void trainsBookedInAnEarlierRunAreSearchedWithoutLoadingThem() throws Exception {
+    File dir = new File(folder.getRoot(), "journal");
+    InventoryStore inventory = InventoryStore.open(trainData, TrainDataFormat.SEATS);
+    ReservationJournal journal = ReservationJournal.open(dir, inventory, 1, vertx, LoggerFactory.getLogger(InventoryStoreTest.class));
+    inventory.reserve("express_2000", Arrays.asList("1B", "2B"), "75bcd16");
+    journal.close();
+    // Once more, so the booking is in a snapshot rather than only in the journal
+    inventory = InventoryStore.open(trainData, TrainDataFormat.SEATS);
+    journal = ReservationJournal.open(dir, inventory, 1, vertx, LoggerFactory.getLogger(InventoryStoreTest.class));
+    inventory.reserve("local_1000", Arrays.asList("1A"), "75bcd17");
+    journal.close();
+
+    InventoryStore restarted = InventoryStore.open(trainData, TrainDataFormat.SEATS);
+    journal = ReservationJournal.open(dir, restarted, 1, vertx, LoggerFactory.getLogger(InventoryStoreTest.class));
+    CapacityIndex index = new CapacityIndex(restarted);
+
+    assertEquals(0, index.search(2, true, 10).getAsJsonArray("trains").size());
+    JsonObject express = index.search(1, false, 10).getAsJsonArray("trains").get(0).getAsJsonObject();
+    assertEquals("express_2000", express.get("train_id").getAsString());
+    assertEquals(1, express.get("free_seats").getAsInt());
+    assertNull(restarted.loadedTrain("express_2000"));
+
+    restarted.reserve("express_2000", Arrays.asList("2A"), "75bcd18");
+    assertNotNull(restarted.loadedTrain("express_2000"));
+    assertEquals(0, index.search(1, false, 10).getAsJsonArray("trains").size());
+    journal.close();
+  }
+}
@@ -0,0 +1,269 @@
+package trains.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static trains.data.TestTrains.trains;
+
+public class ReservationJournalTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Logger logger = LoggerFactory.getLogger(ReservationJournalTest.class);
+  private Vertx vertx;
+  private File trainData;
+  private File dir;
+
+  @Before
+  public void setUp() throws IOException {
+    vertx = VertxFactory.newVertx();
+    trainData = trains().train("express_2000", "1A", "2A", "3A").train("local_1000", "1A", "1B").writeTo(folder);
+    dir = new File(folder.getRoot(), "journal");
+  }
+
+  @After
+  public void tearDown() {
+    vertx.stop();
+  }
+
+  @Test
+  public void reservationsAndResetsAreReplayedAfterARestart() throws Exception {
+    InventoryStore inventory = inventory();
+    ReservationJournal journal = ReservationJournal.open(dir, inventory, 1000, vertx, logger);
+    inventory.reserve("express_2000", Arrays.asList("1A", "2A"), "75bcd15");
+    inventory.reserve("local_1000", Arrays.asList("1B"), "75bcd16");
+    inventory.train("local_1000").reset();
+    inventory.reserve("express_2000", Arrays.asList("3A"), "75bcd17");
+    assertTrue(durable(journal).succeeded());
+    journal.close();
+
+    InventoryStore restarted = inventory();
+    ReservationJournal.open(dir, restarted, 1000, vertx, logger).close();
+
+    assertBookings(restarted.train("express_2000"), "75bcd15", "75bcd15", "75bcd17");
+    assertBookings(restarted.train("local_1000"), "", "");
+  }
+
+  @Test
+  public void aTornRecordAtTheEndIsCutOffAndTheRecordsBeforeItAreKept() throws Exception {
+    InventoryStore inventory = inventory();
+    ReservationJournal journal = ReservationJournal.open(dir, inventory, 1000, vertx, logger);
+    inventory.reserve("express_2000", Arrays.asList("1A"), "75bcd15");
+    inventory.reserve("express_2000", Arrays.asList("2A"), "75bcd16");
+    assertTrue(durable(journal).succeeded());
+    journal.close();
+
+    File log = onlyJournalFile();
+    try (RandomAccessFile torn = new RandomAccessFile(log, "rw")) {
+      torn.setLength(torn.length() - 3);
+    }
+    InventoryStore restarted = inventory();
+    journal = ReservationJournal.open(dir, restarted, 1000, vertx, logger);
+    assertBookings(restarted.train("express_2000"), "75bcd15", "", "");
+
+    // Anything written after the cut has to be readable next time
+    restarted.reserve("express_2000", Arrays.asList("3A"), "75bcd17");
+    assertTrue(durable(journal).succeeded());
+    journal.close();
+    InventoryStore again = inventory();
+    ReservationJournal.open(dir, again, 1000, vertx, logger).close();
+    assertBookings(again.train("express_2000"), "75bcd15", "", "75bcd17");
+  }
+
+  @Test
+  public void aRecordThatFailsItsChecksumIsDiscarded() throws Exception {
+    InventoryStore inventory = inventory();
+    ReservationJournal journal = ReservationJournal.open(dir, inventory, 1000, vertx, logger);
+    inventory.reserve("express_2000", Arrays.asList("1A"), "75bcd15");
+    inventory.reserve("express_2000", Arrays.asList("2A"), "75bcd16");
+    assertTrue(durable(journal).succeeded());
+    journal.close();
+
+    File log = onlyJournalFile();
+    long length = log.length();
+    try (RandomAccessFile corrupt = new RandomAccessFile(log, "rw")) {
+      // The last byte of the last record's booking reference, just before its seats and crc
+      corrupt.seek(length - 4 - 2 - 2 - 4 - 1);
+      corrupt.writeByte('x');
+    }
+    InventoryStore restarted = inventory();
+    ReservationJournal.open(dir, restarted, 1000, vertx, logger).close();
+
+    assertBookings(restarted.train("express_2000"), "75bcd15", "", "");
+    assertTrue(log.length() < length);
+  }
+
+  @Test
+  public void theLatestSnapshotIsLoadedAndTheChangesAfterItReplayed() throws Exception {
+    InventoryStore inventory = inventory();
+    ReservationJournal journal = ReservationJournal.open(dir, inventory, 2, vertx, logger);
+    inventory.reserve("express_2000", Arrays.asList("1A"), "75bcd15");
+    assertTrue(durable(journal).succeeded());
+    inventory.reserve("local_1000", Arrays.asList("1A"), "75bcd16");
+    assertTrue(durable(journal).succeeded());
+    inventory.reserve("express_2000", Arrays.asList("2A"), "75bcd17");
+    assertTrue(durable(journal).succeeded());
+    journal.close();
+
+    assertEquals(1, files("snapshot-").length);
+    InventoryStore restarted = inventory();
+    ReservationJournal.open(dir, restarted, 2, vertx, logger).close();
+
+    assertBookings(restarted.train("express_2000"), "75bcd15", "75bcd17", "");
+    assertBookings(restarted.train("local_1000"), "75bcd16", "");
+  }
+
+  @Test
+  public void trainsArentLoadedAtStartUpButAreBroughtUpToDateWhenTheyAre() throws Exception {
+    InventoryStore inventory = inventory();
+    ReservationJournal journal = ReservationJournal.open(dir, inventory, 2, vertx, logger);
+    inventory.reserve("express_2000", Arrays.asList("1A"), "75bcd15");
+    inventory.reserve("local_1000", Arrays.asList("1A"), "75bcd16");
+    assertTrue(durable(journal).succeeded());
+    inventory.reserve("express_2000", Arrays.asList("2A"), "75bcd17");
+    assertTrue(durable(journal).succeeded());
+    journal.close();
+
+    InventoryStore restarted = inventory();
+    ReservationJournal.open(dir, restarted, 2, vertx, logger).close();
+
+    assertNull(restarted.loadedTrain("express_2000"));
+    assertNull(restarted.loadedTrain("local_1000"));
+    assertBookings(restarted.train("express_2000"), "75bcd15", "75bcd17", "");
+  }
+
+  @Test
+  public void aSnapshotCopiesTheTrainsThatHaventBeenLoadedWithoutLoadingThem() throws Exception {
+    InventoryStore inventory = inventory();
+    ReservationJournal journal = ReservationJournal.open(dir, inventory, 2, vertx, logger);
+    inventory.reserve("express_2000", Arrays.asList("1A"), "75bcd15");
+    inventory.reserve("local_1000", Arrays.asList("1A"), "75bcd16");
+    assertTrue(durable(journal).succeeded());
+    journal.close();
+
+    InventoryStore restarted = inventory();
+    journal = ReservationJournal.open(dir, restarted, 2, vertx, logger);
+    restarted.reserve("local_1000", Arrays.asList("1B"), "75bcd17");
+    restarted.train("local_1000").reset();
+    assertTrue(durable(journal).succeeded());
+    journal.close();
+
+    assertNull(restarted.loadedTrain("express_2000"));
+    assertEquals(1, files("snapshot-").length);
+    InventoryStore again = inventory();
+    ReservationJournal.open(dir, again, 2, vertx, logger).close();
+    assertBookings(again.train("express_2000"), "75bcd15", "", "");
+    assertBookings(again.train("local_1000"), "", "");
+  }
+
+  @Test
+  public void changesReadAtStartUpAreKeptByTheNextSnapshot() throws Exception {
+    InventoryStore inventory = inventory();
+    ReservationJournal journal = ReservationJournal.open(dir, inventory, 1000, vertx, logger);
+    inventory.reserve("express_2000", Arrays.asList("1A"), "75bcd15");
+    assertTrue(durable(journal).succeeded());
+    journal.close();
+
+    InventoryStore restarted = inventory();
+    journal = ReservationJournal.open(dir, restarted, 1, vertx, logger);
+    assertEquals(0, files("snapshot-").length);
+    restarted.reserve("local_1000", Arrays.asList("1B"), "75bcd16");
+    assertTrue(durable(journal).succeeded());
+    journal.close();
+
+    assertEquals(1, files("snapshot-").length);
+    assertEquals(0, files("journal-0000000000000001").length);
+    InventoryStore again = inventory();
+    ReservationJournal.open(dir, again, 1, vertx, logger).close();
+    assertBookings(again.train("express_2000"), "75bcd15", "", "");
+    assertBookings(again.train("local_1000"), "", "75bcd16");
+  }
+
+  @Test
+  public void onceTheJournalCantBeWrittenEveryLaterChangeFails() throws Exception {
+    InventoryStore inventory = inventory();
+    ReservationJournal journal = ReservationJournal.open(dir, inventory, 1, vertx, logger);
+    // The open journal file can still be written, but the snapshot after it can't start a new one
+    for (File file : files("")) {
+      assertTrue(file.delete());
+    }
+    assertTrue(dir.delete());
+
+    inventory.reserve("express_2000", Arrays.asList("1A"), "75bcd15");
+    assertTrue(durable(journal).succeeded());
+    inventory.reserve("express_2000", Arrays.asList("2A"), "75bcd16");
+    assertFalse(durable(journal).succeeded());
+    assertFalse(durable(journal).succeeded());
+    journal.close();
+  }
+
+  private InventoryStore inventory() throws IOException {
+    return InventoryStore.open(trainData, TrainDataFormat.SEATS);
+  }
+
+  private File onlyJournalFile() {
+    File[] logs = files("journal-");
+    assertEquals(1, logs.length);
+    return logs[0];
+  }
+
+  private File[] files(String prefix) {
+    List<File> matching = new ArrayList<>();
+    File[] files = dir.listFiles();
+    for (File file : files == null ? new File[0] : files) {
+      if (file.getName().startsWith(prefix)) matching.add(file);
+    }
+    return matching.toArray(new File[matching.size()]);
+  }
+
+  private AsyncResult<Void> durable(final ReservationJournal journal) throws InterruptedException {
+    final BlockingQueue<AsyncResult<Void>> results = new ArrayBlockingQueue<>(1);
+    vertx.runOnContext(new Handler<Void>() {
+      public void handle(Void event) {
+        journal.whenDurable(new Handler<AsyncResult<Void>>() {
+          public void handle(AsyncResult<Void> result) {
+            results.add(result);
+          }
+        });
+      }
+    });
+    AsyncResult<Void> result = results.poll(5, TimeUnit.SECONDS);
+    assertTrue("The journal never answered", result != null);
+    return result;
+  }
+
+  private static void assertBookings(TrainInventory train, String... bookingReferences) {
+    String[] booked = new String[train.seatCount()];
+    int next = 0;
+    for (int c = 0; c < train.coachCount(); c++) {
+      for (int s = 0; s < train.seatCount(c); s++) {
+        booked[next++] = train.bookingReference(TrainInventory.seat(c, s));
+      }
+    }
+    assertEquals(Arrays.asList(bookingReferences), Arrays.asList(booked));
+  }
+}
@@ -0,0 +1,106 @@
+package trains.data;
+
+import com.google.gson.JsonObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static trains.data.TestTrains.trains;
+
+public class SeatHoldsTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private InventoryStore inventory;
+  private CapacityIndex index;
+  private SeatHolds holds;
+  private TrainInventory train;
+
+  @Before
+  public void setUp() throws IOException {
+    inventory = InventoryStore.open(trains().train("local_1000", "1A", "2A", "3A", "1B", "2B").writeTo(folder), TrainDataFormat.SEATS);
+    index = new CapacityIndex(inventory);
+    index.search(1, false, 10);
+    holds = new SeatHolds(inventory, new TimerWheel(1000, 512), 300000);
+    train = inventory.train("local_1000");
+  }
+
+  @Test
+  public void heldSeatsArentCountedAsFreeUntilTheyreReleased() {
+    String holdId = holds.hold("local_1000", Arrays.asList("1A", "2A")).holdId();
+
+    assertEquals(5, train.freeSeatCount());
+    assertEquals(2, train.heldSeatCount());
+    assertEquals(3, Availability.of(train, 1, false).get("free_seats").getAsInt());
+    JsonObject occupancy = Occupancy.of(train);
+    assertEquals(0, occupancy.get("booked").getAsInt());
+    assertEquals(2, occupancy.get("held").getAsInt());
+    assertEquals(0, index.search(4, false, 10).getAsJsonArray("trains").size());
+    assertEquals(3, index.search(3, false, 10).getAsJsonArray("trains").get(0).getAsJsonObject().get("free_seats").getAsInt());
+
+    holds.release(holdId);
+
+    assertEquals(0, train.heldSeatCount());
+    assertEquals(5, Availability.of(train, 1, false).get("free_seats").getAsInt());
+    assertEquals(1, index.search(5, false, 10).getAsJsonArray("trains").size());
+  }
+
+  @Test
+  public void aSeatAskedForTwiceIsOnlyHeldOnce() {
+    String holdId = holds.hold("local_1000", Arrays.asList("1A", "1A")).holdId();
+
+    assertEquals(1, train.heldSeatCount());
+    assertEquals(1, train.heldSeatCount(0));
+
+    holds.release(holdId);
+
+    assertEquals(0, train.heldSeatCount());
+    assertEquals(5, train.availableSeatCount());
+    assertEquals(1, index.search(5, false, 10).getAsJsonArray("trains").size());
+  }
+
+  @Test
+  public void resettingATrainWithOnlyHoldsOnItDropsThem() {
+    holds.hold("local_1000", Arrays.asList("1A", "2A"));
+    long version = train.version();
+
+    train.reset();
+
+    assertEquals(version + 1, train.version());
+    assertEquals(5, train.availableSeatCount());
+    assertEquals(1, index.search(5, false, 10).getAsJsonArray("trains").size());
+    assertEquals(3, train.mostAvailableSeatsInACoach());
+  }
+
+  @Test
+  public void aCoachWithHeldSeatsOnlyTakesAPartyThatFitsInTheRest() {
+    holds.hold("local_1000", Arrays.asList("1A"));
+
+    assertEquals(2, train.mostAvailableSeatsInACoach());
+    assertEquals(0, Availability.of(train, 3, true).getAsJsonArray("seats").size());
+    assertEquals("[\"2A\",\"3A\"]", Availability.of(train, 2, true).getAsJsonArray("seats").toString());
+    assertEquals(0, index.search(3, true, 10).getAsJsonArray("trains").size());
+    assertEquals(1, index.search(2, true, 10).getAsJsonArray("trains").size());
+  }
+
+  @Test
+  public void confirmingAHoldBooksItsSeats() {
+    String holdId = holds.hold("local_1000", Arrays.asList("1B", "2B")).holdId();
+
+    holds.confirm(holdId, "75bcd15");
+
+    assertEquals(0, train.heldSeatCount());
+    assertEquals(3, train.freeSeatCount());
+    JsonObject occupancy = Occupancy.of(train);
+    assertEquals(2, occupancy.get("booked").getAsInt());
+    assertEquals(0, occupancy.get("held").getAsInt());
+    assertEquals(0, index.search(4, false, 10).getAsJsonArray("trains").size());
+    assertEquals(1, index.search(3, false, 10).getAsJsonArray("trains").size());
+  }
+}
@@ -0,0 +1,112 @@
+package trains.data;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Train data for tests, so each one only spells out the seats it depends on, e.g.
+ * trains().train("express_2000", "1A=75bcd15", "2A", "1B") for a train with 1A booked and 2A and 1B free.
+ * A seat id's last letter is its coach.
+ */
+final class TestTrains {
+
+  private final Map<String, String[]> trains = new LinkedHashMap<>();
+
+  private TestTrains() {
+  }
+
+  static TestTrains trains() {
+    return new TestTrains();
+  }
+
+  TestTrains train(String trainId, String... seats) {
+    trains.put(trainId, seats);
+    return this;
+  }
+
+  /** The trains as the seats layout has them, keyed by seat id */
+  String json() {
+    JsonObject json = new JsonObject();
+    for (Map.Entry<String, String[]> train : trains.entrySet()) {
+      JsonObject seats = new JsonObject();
+      for (String seat : train.getValue()) {
+        JsonObject attrs = new JsonObject();
+        attrs.addProperty("coach", coach(seat));
+        attrs.addProperty("seat_number", seatNumber(seat));
+        attrs.addProperty("booking_reference", bookingReference(seat));
+        seats.add(seatId(seat), attrs);
+      }
+      JsonObject attrs = new JsonObject();
+      attrs.add("seats", seats);
+      json.add(train.getKey(), attrs);
+    }
+    return json.toString();
+  }
+
+  /** The same trains as the coaches layout has them, each coach's seats in a list */
+  String coachesJson() {
+    JsonObject json = new JsonObject();
+    for (Map.Entry<String, String[]> train : trains.entrySet()) {
+      Map<String, JsonArray> coaches = new LinkedHashMap<>();
+      for (String seat : train.getValue()) {
+        if (!coaches.containsKey(coach(seat))) coaches.put(coach(seat), new JsonArray());
+        JsonObject attrs = new JsonObject();
+        attrs.addProperty("seat_number", seatNumber(seat));
+        attrs.addProperty("booking_reference", bookingReference(seat));
+        coaches.get(coach(seat)).add(attrs);
+      }
+      JsonArray coachList = new JsonArray();
+      for (Map.Entry<String, JsonArray> coach : coaches.entrySet()) {
+        JsonObject attrs = new JsonObject();
+        attrs.addProperty("coach", coach.getKey());
+        attrs.add("seats", coach.getValue());
+        coachList.add(attrs);
+      }
+      JsonObject attrs = new JsonObject();
+      attrs.add("coaches", coachList);
+      json.add(train.getKey(), attrs);
+    }
+    return json.toString();
+  }
+
+  /** Writes the trains in the seats layout to trains.json in the folder */
+  File writeTo(TemporaryFolder folder) throws IOException {
+    return write(folder, "trains.json", json());
+  }
+
+  static File write(TemporaryFolder folder, String name, String content) throws IOException {
+    File file = new File(folder.getRoot(), name);
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(content.getBytes(StandardCharsets.UTF_8));
+    }
+    return file;
+  }
+
+  private static String seatId(String seat) {
+    int booked = seat.indexOf('=');
+    return booked < 0 ? seat : seat.substring(0, booked);
+  }
+
+  private static String coach(String seat) {
+    String seatId = seatId(seat);
+    return seatId.substring(seatId.length() - 1);
+  }
+
+  private static String seatNumber(String seat) {
+    String seatId = seatId(seat);
+    return seatId.substring(0, seatId.length() - 1);
+  }
+
+  private static String bookingReference(String seat) {
+    int booked = seat.indexOf('=');
+    return booked < 0 ? "" : seat.substring(booked + 1);
+  }
+}
@@ -0,0 +1,79 @@
+package trains.data;
+
+import com.google.gson.JsonSyntaxException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TrainDataIndexTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void findsEachTrainsJsonInTheOrderTheyAppear() throws IOException {
+    Map<String, ByteBuffer> trains = TrainDataIndex.of(write("{\n" +
+        "  \"express_2000\": {\"seats\": {\"1A\": {\"coach\": \"A\", \"seat_number\": \"1\", \"booking_reference\": \"\"}}},\n" +
+        "  \"local_1000\" : {\"seats\": {}}\n" +
+        "}\n"));
+
+    assertEquals(Arrays.asList("express_2000", "local_1000"), new ArrayList<>(trains.keySet()));
+    assertEquals("{\"seats\": {\"1A\": {\"coach\": \"A\", \"seat_number\": \"1\", \"booking_reference\": \"\"}}}", text(trains.get("express_2000")));
+    assertEquals("{\"seats\": {}}", text(trains.get("local_1000")));
+  }
+
+  @Test
+  public void bracesAndQuotesInsideStringsDontEndATrain() throws IOException {
+    Map<String, ByteBuffer> trains = TrainDataIndex.of(write(
+        "{\"express_2000\": {\"name\": \"a } \\\" ] { train\"}, \"local_1000\": {\"list\": [1, {\"a\": []}]}}"));
+
+    assertEquals("{\"name\": \"a } \\\" ] { train\"}", text(trains.get("express_2000")));
+    assertEquals("{\"list\": [1, {\"a\": []}]}", text(trains.get("local_1000")));
+  }
+
+  @Test
+  public void escapedTrainIdsAreUnescaped() throws IOException {
+    Map<String, ByteBuffer> trains = TrainDataIndex.of(write("{\"night\\u0020train\": {}}"));
+
+    assertEquals("{}", text(trains.get("night train")));
+    assertNull(trains.get("night\\u0020train"));
+  }
+
+  @Test
+  public void anEmptyFileOfTrainsHasNoTrains() throws IOException {
+    assertTrue(TrainDataIndex.of(write(" { } ")).isEmpty());
+  }
+
+  @Test
+  public void trainDataThatEndsTooSoonIsRejected() throws IOException {
+    try {
+      TrainDataIndex.of(write("{\"express_2000\": {\"seats\": {}"));
+      fail("Truncated train data shouldn't index");
+    } catch (JsonSyntaxException e) {
+      assertEquals("The train data ends unexpectedly", e.getMessage());
+    }
+  }
+
+  private File write(String json) throws IOException {
+    return TestTrains.write(folder, "trains.json", json);
+  }
+
+  private static String text(ByteBuffer json) {
+    byte[] bytes = new byte[json.remaining()];
+    json.duplicate().get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}